@@ -0,0 +1,103 @@
+package com.github.wenqiglantz.service.tenantadmin.service;
+
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.IsolationType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating a tenant schema with one autocommitted statement per round trip, like provisioning used to, against the
+ * transactional single round trip script. Needs a Postgres the user may create roles and schemas in, e.g.
+ * -Djmh.args="ProvisioningScriptBenchmark -p url=jdbc:postgresql://host:5432/multi_tenant_customerdb". The gap
+ * grows with the round trip time, so measure against the database server the admin service actually uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProvisioningScriptBenchmark {
+
+    @Param("jdbc:postgresql://localhost:5432/multi_tenant_customerdb")
+    private String url;
+
+    @Param("postgres")
+    private String username;
+
+    @Param("postgres")
+    private String password;
+
+    @Param({"SCHEMA", "SCHEMADISCRIMINATOR"})
+    private IsolationType isolationType;
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TenantProvisioner tenantProvisioner;
+
+    private String schema;
+
+    private int schemas;
+
+    @Setup
+    public void setUp() {
+        dataSource = new SingleConnectionDataSource(url, username, password, true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        String databaseName = url.substring(url.lastIndexOf('/') + 1);
+        tenantProvisioner = new TenantProvisioner(dataSource, jdbcTemplate, transactionTemplate, null, null, null,
+                null, databaseName, url.substring(0, url.lastIndexOf('/') + 1), "", null, false, username, password);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextSchema() {
+        schema = "benchmark" + ProcessHandle.current().pid() + "_" + schemas++;
+    }
+
+    @TearDown(Level.Invocation)
+    public void dropSchema() {
+        tenantProvisioner.dropSpare(IsolationType.SCHEMA, schema);
+        if (isolationType == IsolationType.SCHEMADISCRIMINATOR) {
+            //the row level security app user
+            jdbcTemplate.execute("DROP OWNED BY " + schema + "user; DROP USER " + schema + "user");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public void perStatement() {
+        ProvisioningScript script = isolationType == IsolationType.SCHEMA
+                ? tenantProvisioner.getSchemaScript(schema, "benchmark")
+                : tenantProvisioner.getSchemaDiscriminatorScript(schema, "benchmark");
+        for (String statement : script.getStatements()) {
+            jdbcTemplate.execute(statement);
+        }
+    }
+
+    @Benchmark
+    public void script() {
+        tenantProvisioner.create(isolationType, schema, "benchmark");
+    }
+}
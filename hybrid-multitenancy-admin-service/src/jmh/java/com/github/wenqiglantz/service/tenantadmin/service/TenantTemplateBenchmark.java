@@ -0,0 +1,106 @@
+package com.github.wenqiglantz.service.tenantadmin.service;
+
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.IsolationType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.liquibase.LiquibaseProperties;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provisioning a tenant database or schema by running the tenant changelog against cloning the template of the
+ * changelog. Needs a Postgres the user may create databases, roles and schemas in, e.g.
+ * -Djmh.args="TenantTemplateBenchmark -p url=jdbc:postgresql://host:5432/multi_tenant_customerdb". The first
+ * clone creates the template, which falls into warmup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TenantTemplateBenchmark {
+
+    private static final String CHANGELOG = "classpath:db/changelog/db.changelog-tenant.xml";
+
+    @Param("jdbc:postgresql://localhost:5432/multi_tenant_customerdb")
+    private String url;
+
+    @Param("postgres")
+    private String username;
+
+    @Param("postgres")
+    private String password;
+
+    @Param({"DATABASE", "SCHEMA"})
+    private IsolationType isolationType;
+
+    private SingleConnectionDataSource dataSource;
+
+    private TenantProvisioner liquibaseProvisioner;
+
+    private TenantProvisioner templateProvisioner;
+
+    private String dbOrSchema;
+
+    private int tenants;
+
+    @Setup
+    public void setUp() {
+        dataSource = new SingleConnectionDataSource(url, username, password, true);
+        liquibaseProvisioner = newTenantProvisioner(false);
+        templateProvisioner = newTenantProvisioner(true);
+    }
+
+    private TenantProvisioner newTenantProvisioner(boolean templatesEnabled) {
+        LiquibaseProperties liquibaseProperties = new LiquibaseProperties();
+        liquibaseProperties.setChangeLog(CHANGELOG);
+        String databaseName = url.substring(url.lastIndexOf('/') + 1);
+        String urlPrefix = url.substring(0, url.lastIndexOf('/') + 1);
+        return new TenantProvisioner(dataSource, new JdbcTemplate(dataSource),
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)), liquibaseProperties,
+                liquibaseProperties, new DefaultResourceLoader(), null, databaseName, urlPrefix, "", CHANGELOG,
+                templatesEnabled, username, password);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextTenant() {
+        dbOrSchema = "benchmark" + ProcessHandle.current().pid() + "_" + tenants++;
+    }
+
+    @TearDown(Level.Invocation)
+    public void dropTenant() {
+        liquibaseProvisioner.dropSpare(isolationType, dbOrSchema);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public void liquibase() {
+        liquibaseProvisioner.provision(dbOrSchema, isolationType, dbOrSchema, "benchmark");
+    }
+
+    @Benchmark
+    public void template() {
+        templateProvisioner.provision(dbOrSchema, isolationType, dbOrSchema, "benchmark");
+    }
+}
@@ -1,29 +1,43 @@
 package com.github.wenqiglantz.service.tenantadmin.controller;
 
 import com.github.wenqiglantz.service.tenantadmin.domain.entity.IsolationType;
-import com.github.wenqiglantz.service.tenantadmin.service.TenantAdminService;
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.ProvisioningJob;
+import com.github.wenqiglantz.service.tenantadmin.service.ProvisioningJobService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 @Controller
 @RequestMapping("/")
 @RequiredArgsConstructor
 public class TenantAdminController {
 
-    private final TenantAdminService tenantAdminService;
+    private final ProvisioningJobService provisioningJobService;
 
+    //provisioning runs in the background, poll the job at the returned location for its progress
     @PostMapping("/tenants")
-    public ResponseEntity<Void> createTenant(@RequestParam String tenantId,
-                                             @RequestParam IsolationType isolationType,
-                                             @RequestParam String dbOrSchema,
-                                             @RequestParam String userName,
-                                             @RequestParam String password) {
-        tenantAdminService.createTenant(tenantId, isolationType, dbOrSchema, userName, password);
-        return new ResponseEntity<>(HttpStatus.CREATED);
+    public ResponseEntity<ProvisioningJob> createTenant(@RequestParam String tenantId,
+                                                        @RequestParam IsolationType isolationType,
+                                                        @RequestParam String dbOrSchema,
+                                                        @RequestParam String userName,
+                                                        @RequestParam String password) {
+        ProvisioningJob job = provisioningJobService.submit(tenantId, isolationType, dbOrSchema, userName, password);
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/tenants/jobs/{jobId}")
+                        .buildAndExpand(job.getJobId())
+                        .toUri())
+                .body(job);
+    }
+
+    @GetMapping("/tenants/jobs/{jobId}")
+    public ResponseEntity<ProvisioningJob> getJob(@PathVariable String jobId) {
+        return ResponseEntity.of(provisioningJobService.getJob(jobId));
     }
 }
@@ -0,0 +1,76 @@
+package com.github.wenqiglantz.service.tenantadmin.domain.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.OrderColumn;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@Entity
+@Table(name = "provisioning_job")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder(toBuilder = true)
+public class ProvisioningJob {
+
+    public enum Status { PENDING, RUNNING, SUCCEEDED, FAILED }
+
+    @Id
+    @Column(name = "job_id")
+    private String jobId;
+
+    @Column(name = "tenant_id")
+    private String tenantId;
+
+    @Column(name = "isolation_type")
+    @Enumerated(EnumType.STRING)
+    private IsolationType isolationType;
+
+    @Column(name = "db_or_schema")
+    private String dbOrSchema;
+
+    @Column(name = "username")
+    private String username;
+
+    //encrypted, cleared once the job finished
+    @JsonIgnore
+    @Column(name = "password")
+    private String password;
+
+    @Column(name = "status")
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    @Column(name = "error")
+    private String error;
+
+    @Column(name = "created_on")
+    private Instant createdOn;
+
+    @Column(name = "updated_on")
+    private Instant updatedOn;
+
+    @Builder.Default
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "provisioning_job_step", joinColumns = @JoinColumn(name = "job_id"))
+    @OrderColumn(name = "step_order")
+    private List<ProvisioningStep> steps = new ArrayList<>();
+
+}
@@ -0,0 +1,35 @@
+package com.github.wenqiglantz.service.tenantadmin.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+
+import java.time.Instant;
+
+@Embeddable
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProvisioningStep {
+
+    public enum Status { RUNNING, DONE, SKIPPED, FAILED }
+
+    @Column(name = "name")
+    private String name;
+
+    @Column(name = "status")
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    @Column(name = "started_on")
+    private Instant startedOn;
+
+    @Column(name = "finished_on")
+    private Instant finishedOn;
+
+}
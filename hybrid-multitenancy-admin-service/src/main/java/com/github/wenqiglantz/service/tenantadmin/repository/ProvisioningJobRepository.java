@@ -0,0 +1,16 @@
+package com.github.wenqiglantz.service.tenantadmin.repository;
+
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.ProvisioningJob;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface ProvisioningJobRepository extends CrudRepository<ProvisioningJob, String> {
+
+    Optional<ProvisioningJob> findFirstByTenantIdAndStatusIn(String tenantId,
+                                                             Collection<ProvisioningJob.Status> statuses);
+
+    List<ProvisioningJob> findByStatusInOrderByCreatedOn(Collection<ProvisioningJob.Status> statuses);
+}
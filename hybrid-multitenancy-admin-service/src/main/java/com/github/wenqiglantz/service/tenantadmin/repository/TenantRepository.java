@@ -1,7 +1,11 @@
 package com.github.wenqiglantz.service.tenantadmin.repository;
 
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.IsolationType;
 import com.github.wenqiglantz.service.tenantadmin.domain.entity.Tenant;
 import org.springframework.data.repository.CrudRepository;
 
 public interface TenantRepository extends CrudRepository<Tenant, String> {
-}
\ No newline at end of file
+
+    boolean existsByIsolationTypeAndUrlAndChangelogFingerprint(IsolationType isolationType, String url,
+                                                               String changelogFingerprint);
+}
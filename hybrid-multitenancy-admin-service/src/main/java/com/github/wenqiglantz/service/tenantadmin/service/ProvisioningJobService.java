@@ -0,0 +1,254 @@
+package com.github.wenqiglantz.service.tenantadmin.service;
+
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.IsolationType;
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.ProvisioningJob;
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.ProvisioningStep;
+import com.github.wenqiglantz.service.tenantadmin.repository.ProvisioningJobRepository;
+import com.github.wenqiglantz.service.tenantadmin.util.EncryptionService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tenant provisioning as durable jobs recorded in the master provisioning_job table. A bounded pool of workers
+ * runs the jobs, and jobs targeting the same database or schema run one after the other so concurrent onboarding does
+ * not pile up DDL and Liquibase locks on it. Assumes a single admin service instance: on startup jobs left running by the
+ * previous instance are failed and pending ones are resubmitted.
+ */
+@Slf4j
+@Service
+public class ProvisioningJobService {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final TenantAdminService tenantAdminService;
+    private final ProvisioningJobRepository provisioningJobRepository;
+    private final EncryptionService encryptionService;
+    private final String databaseName;
+    private final String secret;
+    private final String salt;
+    private final ExecutorService workers;
+
+    //last job submitted per target database or schema, the next one for the target runs once it completes
+    private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+
+    //submissions in progress per tenant, a concurrent submission for the tenant gets the same job
+    private final Map<String, CompletableFuture<ProvisioningJob>> submissions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProvisioningJobService(TenantAdminService tenantAdminService,
+                                  ProvisioningJobRepository provisioningJobRepository,
+                                  EncryptionService encryptionService,
+                                  @Value("${databaseName:}") String databaseName,
+                                  @Value("${multitenancy.tenant.provisioning.workers:4}") int workers,
+                                  @Value("${encryption.secret}") String secret,
+                                  @Value("${encryption.salt}") String salt
+    ) {
+        this.tenantAdminService = tenantAdminService;
+        this.provisioningJobRepository = provisioningJobRepository;
+        this.encryptionService = encryptionService;
+        this.databaseName = databaseName;
+        this.secret = secret;
+        this.salt = salt;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable ->
+                new Thread(null, runnable, "tenant-provisioning-" + threads.incrementAndGet(), 0, false));
+    }
+
+    // Records a pending job for the tenant and queues it, or returns the tenant's unfinished job so a retried
+    // request does not provision the tenant twice
+    public ProvisioningJob submit(String tenantId, IsolationType isolationType, String dbOrSchema,
+                                  String userName, String password) {
+        tenantAdminService.validate(dbOrSchema);
+        CompletableFuture<ProvisioningJob> submission = new CompletableFuture<>();
+        CompletableFuture<ProvisioningJob> concurrent = submissions.putIfAbsent(tenantId, submission);
+        if (concurrent != null) {
+            return concurrent.join();
+        }
+        try {
+            ProvisioningJob job = findOrSave(tenantId, isolationType, dbOrSchema, userName, password);
+            submission.complete(job);
+            return job;
+        } catch (RuntimeException e) {
+            submission.completeExceptionally(e);
+            throw e;
+        } finally {
+            submissions.remove(tenantId, submission);
+        }
+    }
+
+    private ProvisioningJob findOrSave(String tenantId, IsolationType isolationType, String dbOrSchema,
+                                       String userName, String password) {
+        Optional<ProvisioningJob> unfinished = provisioningJobRepository.findFirstByTenantIdAndStatusIn(tenantId,
+                List.of(ProvisioningJob.Status.PENDING, ProvisioningJob.Status.RUNNING));
+        if (unfinished.isPresent()) {
+            return unfinished.get();
+        }
+        Instant now = Instant.now();
+        ProvisioningJob job = provisioningJobRepository.save(ProvisioningJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .tenantId(tenantId)
+                .isolationType(isolationType)
+                .dbOrSchema(dbOrSchema)
+                .username(userName)
+                .password(encryptionService.encrypt(password, secret, salt))
+                .status(ProvisioningJob.Status.PENDING)
+                .createdOn(now)
+                .updatedOn(now)
+                .build());
+        //a worker may already be updating the queued job while the response is serialized
+        ProvisioningJob submitted = job.toBuilder().steps(new ArrayList<>(job.getSteps())).build();
+        enqueue(job);
+        return submitted;
+    }
+
+    public Optional<ProvisioningJob> getJob(String jobId) {
+        return provisioningJobRepository.findById(jobId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        for (ProvisioningJob job : provisioningJobRepository.findByStatusInOrderByCreatedOn(
+                List.of(ProvisioningJob.Status.PENDING, ProvisioningJob.Status.RUNNING))) {
+            if (job.getStatus() == ProvisioningJob.Status.RUNNING) {
+                //the database or schema may be half created, leave it to an operator
+                job.setPassword(null);
+                update(job, ProvisioningJob.Status.FAILED, "Interrupted by an admin service restart");
+                log.warn("Failed provisioning job {} of tenant {} interrupted by restart", job.getJobId(),
+                        job.getTenantId());
+            } else {
+                enqueue(job);
+            }
+        }
+    }
+
+    // Each schema and database has its own Liquibase lock, only discriminator tenants all migrate the shared database
+    private synchronized void enqueue(ProvisioningJob job) {
+        String target = job.getIsolationType() == IsolationType.DISCRIMINATOR ? databaseName : job.getDbOrSchema();
+        CompletableFuture<Void> tail = tails.getOrDefault(target, CompletableFuture.completedFuture(null));
+        //runs after the previous job of the target however that one ended
+        CompletableFuture<Void> next = tail.handle((result, e) -> null).thenRunAsync(() -> run(job), workers);
+        tails.put(target, next);
+        next.whenComplete((result, e) -> {
+            synchronized (this) {
+                tails.remove(target, next);
+            }
+        });
+    }
+
+    private void run(ProvisioningJob queued) {
+        JobProgress progress = new JobProgress(queued);
+        try {
+            String password = encryptionService.decrypt(queued.getPassword(), secret, salt);
+            //the password is only needed to create the users
+            queued.setPassword(null);
+            progress.update(ProvisioningJob.Status.RUNNING, null);
+            tenantAdminService.createTenant(queued.getTenantId(), queued.getIsolationType(), queued.getDbOrSchema(),
+                    queued.getUsername(), password, progress);
+            progress.update(ProvisioningJob.Status.SUCCEEDED, null);
+            log.info("Provisioning job {} of tenant {} succeeded", queued.getJobId(), queued.getTenantId());
+        } catch (RuntimeException e) {
+            log.error("Provisioning job " + queued.getJobId() + " of tenant " + queued.getTenantId() + " failed", e);
+            ProvisioningJob job = progress.job;
+            job.setPassword(null);
+            job.getSteps().stream()
+                    .filter(step -> step.getStatus() == ProvisioningStep.Status.RUNNING)
+                    .forEach(step -> {
+                        step.setStatus(ProvisioningStep.Status.FAILED);
+                        step.setFinishedOn(Instant.now());
+                    });
+            try {
+                progress.update(ProvisioningJob.Status.FAILED, getMessage(e));
+            } catch (RuntimeException updateFailure) {
+                //left PENDING or RUNNING, recovered on the next startup
+                log.error("Could not record failure of provisioning job " + job.getJobId(), updateFailure);
+            }
+        }
+    }
+
+    // Saving merges the job into a new persistence context. The saved copy carries the step collection Hibernate
+    // tracks, merging the same detached job again would insert its steps a second time.
+    private ProvisioningJob update(ProvisioningJob job, ProvisioningJob.Status status, String error) {
+        job.setStatus(status);
+        job.setError(error);
+        job.setUpdatedOn(Instant.now());
+        return provisioningJobRepository.save(job);
+    }
+
+    // The statements of a failed script carry the tenant's password, only the postgres error is kept next to the
+    // failed step
+    private static String getMessage(Throwable e) {
+        Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+        String message = cause == e ? String.valueOf(e.getMessage()) : e.getMessage() + ": " + cause.getMessage();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        workers.shutdownNow();
+    }
+
+    //saves the job on every step so status polls see the progress
+    private class JobProgress implements ProvisioningProgress {
+
+        //the copy saved last
+        private ProvisioningJob job;
+
+        private JobProgress(ProvisioningJob job) {
+            this.job = job;
+        }
+
+        private void update(ProvisioningJob.Status status, String error) {
+            job = ProvisioningJobService.this.update(job, status, error);
+        }
+
+        @Override
+        public void started(String step) {
+            job.getSteps().add(new ProvisioningStep(step, ProvisioningStep.Status.RUNNING, Instant.now(), null));
+            update(job.getStatus(), null);
+        }
+
+        @Override
+        public void finished(String step) {
+            end(step, ProvisioningStep.Status.DONE);
+        }
+
+        @Override
+        public void skipped(String step) {
+            end(step, ProvisioningStep.Status.SKIPPED);
+        }
+
+        private void end(String name, ProvisioningStep.Status status) {
+            Instant now = Instant.now();
+            ProvisioningStep step = job.getSteps().stream()
+                    .filter(s -> s.getName().equals(name) && s.getStatus() == ProvisioningStep.Status.RUNNING)
+                    .findFirst()
+                    .orElseGet(() -> {
+                        ProvisioningStep skipped = new ProvisioningStep(name, status, now, null);
+                        job.getSteps().add(skipped);
+                        return skipped;
+                    });
+            step.setStatus(status);
+            step.setFinishedOn(now);
+            update(job.getStatus(), null);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.wenqiglantz.service.tenantadmin.service;
+
+/**
+ * Receives the steps of a tenant's provisioning as {@link TenantAdminService#createTenant} runs them.
+ */
+public interface ProvisioningProgress {
+
+    String SPARE = "spare";
+    String CREATE = "create";
+    String MIGRATE = "migrate";
+    String REGISTER = "register";
+    String NOTIFY = "notify";
+
+    ProvisioningProgress NONE = new ProvisioningProgress() {
+    };
+
+    default void started(String step) {
+    }
+
+    default void finished(String step) {
+    }
+
+    default void skipped(String step) {
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.wenqiglantz.service.tenantadmin.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * DDL statements provisioning a tenant, sent to Postgres as one multi-statement string. Names and passwords are
+ * validated and quoted as they are added, so the script can be built from request parameters.
+ */
+final class ProvisioningScript {
+
+    //unquoted postgres identifier of at most 63 characters
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]{0,62}");
+
+    private final List<String> statements = new ArrayList<>();
+
+    ProvisioningScript add(String statement) {
+        statements.add(statement);
+        return this;
+    }
+
+    List<String> getStatements() {
+        return statements;
+    }
+
+    String getSql() {
+        return String.join(";\n", statements);
+    }
+
+    static String identifier(String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            throw new TenantCreationException("Invalid database, schema or user name: " + name);
+        }
+        return name;
+    }
+
+    //names read from the catalog, which may need quoting
+    static String quoted(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    //standard_conforming_strings is on by default since postgres 9.1, only single quotes need escaping
+    static String literal(String value) {
+        if (value == null || value.indexOf('\0') >= 0) {
+            throw new TenantCreationException("Invalid password");
+        }
+        return "'" + value.replace("'", "''") + "'";
+    }
+}
@@ -0,0 +1,522 @@
+package com.github.wenqiglantz.service.tenantadmin.service;
+
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.IsolationType;
+import com.github.wenqiglantz.service.tenantadmin.repository.TenantRepository;
+import liquibase.Scope;
+import liquibase.ThreadLocalScopeManager;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.liquibase.LiquibaseProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.github.wenqiglantz.service.tenantadmin.service.ProvisioningScript.identifier;
+import static com.github.wenqiglantz.service.tenantadmin.service.ProvisioningScript.literal;
+import static com.github.wenqiglantz.service.tenantadmin.service.ProvisioningScript.quoted;
+
+/**
+ * Creates the database or schema of a tenant, its database users and grants, and migrates it with the tenant
+ * changelog. Used for new tenants and for the spares of the {@link TenantSparePool}.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(LiquibaseProperties.class)
+public class TenantProvisioner {
+
+    private static final String LIQUIBASE_CONTEXT_NON_HIERARCHY = "main";
+    private static final String LIQUIBASE_CONTEXT_HIERARCHY = "main,hierarchy"; //comma separated means both main and hierarchy contexts
+    static final String TEMPLATE_PREFIX = "tenanttemplate";
+    //template names end in the first 12 hex digits of the changelog fingerprint
+    private static final String TEMPLATE_NAME_REGEXP = "^" + TEMPLATE_PREFIX + "[0-9a-f]{12}(_new)?$";
+    //anything but plain tables, their indexes and identity sequences, which CREATE TABLE ... LIKE cannot clone
+    private static final String UNCLONEABLE_OBJECTS_QUERY =
+            "WITH n AS (SELECT oid FROM pg_namespace WHERE nspname = ?) "
+            + "SELECT (SELECT count(*) FROM pg_class c, n WHERE c.relnamespace = n.oid "
+            + "AND (c.relkind NOT IN ('r', 'i', 'S') OR c.relrowsecurity OR c.relkind = 'S' "
+            + "AND NOT EXISTS (SELECT 1 FROM pg_depend d WHERE d.objid = c.oid AND d.deptype = 'i'))) "
+            + "+ (SELECT count(*) FROM pg_constraint k, n WHERE k.connamespace = n.oid AND k.contype = 'f') "
+            + "+ (SELECT count(*) FROM pg_proc f, n WHERE f.pronamespace = n.oid) "
+            + "+ (SELECT count(*) FROM pg_type t, n WHERE t.typnamespace = n.oid "
+            + "AND t.typtype IN ('d', 'e', 'r', 'm'))";
+    //concurrent grants on the master database, which all schema tenants live in, fail with "tuple concurrently
+    //updated", so provisioning transactions take turns from the grant until they commit
+    private static final String DATABASE_GRANT_LOCK = "SELECT pg_advisory_xact_lock(hashtext('tenant database grant'))";
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LiquibaseProperties tenantLiquibaseProperties;
+    private final LiquibaseProperties liquibaseProperties;
+    private final ResourceLoader resourceLoader;
+    private final TenantRepository tenantRepository;
+    private final String databaseName;
+    private final String urlPrefix;
+    private final String sharedPoolUsername;
+    private final String liquibaseChangeLog;
+    private final boolean templatesEnabled;
+    private final String masterUsername;
+    private final String masterPassword;
+    private final Map<IsolationType, String> changeLogFingerprints = new ConcurrentHashMap<>();
+    //templates of the current changelog that are ready to be cloned
+    private final Map<IsolationType, String> templates = new ConcurrentHashMap<>();
+    private static boolean threadLocalScopes;
+
+    @Autowired
+    public TenantProvisioner(DataSource dataSource,
+                             JdbcTemplate jdbcTemplate,
+                             TransactionTemplate transactionTemplate,
+                             @Qualifier("masterLiquibaseProperties")
+                                     LiquibaseProperties liquibaseProperties,
+                             @Qualifier("tenantLiquibaseProperties")
+                                     LiquibaseProperties tenantLiquibaseProperties,
+                             ResourceLoader resourceLoader,
+                             TenantRepository tenantRepository,
+                             @Value("${databaseName:}") String databaseName,
+                             @Value("${multitenancy.tenant.datasource.url-prefix}") String urlPrefix,
+                             @Value("${multitenancy.tenant.datasource.shared-pool.username:}") String sharedPoolUsername,
+                             @Value("${multitenancy.tenant.liquibase.changeLog}") String liquibaseChangeLog,
+                             @Value("${multitenancy.tenant.template.enabled:true}") boolean templatesEnabled,
+                             @Value("${multitenancy.master.datasource.username}") String masterUsername,
+                             @Value("${multitenancy.master.datasource.password}") String masterPassword
+    ) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.liquibaseProperties = liquibaseProperties;
+        this.tenantLiquibaseProperties = tenantLiquibaseProperties;
+        this.resourceLoader = resourceLoader;
+        this.tenantRepository = tenantRepository;
+        this.databaseName = databaseName;
+        this.urlPrefix = urlPrefix;
+        this.sharedPoolUsername = sharedPoolUsername;
+        this.liquibaseChangeLog = liquibaseChangeLog;
+        this.templatesEnabled = templatesEnabled;
+        this.masterUsername = masterUsername;
+        this.masterPassword = masterPassword;
+    }
+
+    String getUrl(IsolationType isolationType, String dbOrSchema) {
+        return switch (isolationType) {
+            case DATABASE -> urlPrefix + dbOrSchema;
+            case SCHEMA, SCHEMADISCRIMINATOR -> urlPrefix + databaseName + "?currentSchema=" + dbOrSchema;
+            case DISCRIMINATOR -> urlPrefix + databaseName;
+        };
+    }
+
+    void provision(String tenantId, IsolationType isolationType, String dbOrSchema, String password) {
+        if (!create(isolationType, dbOrSchema, password)) {
+            migrate(tenantId, isolationType, dbOrSchema, password);
+        }
+    }
+
+    // The database or schema with its users and grants, discriminator tenants live in the existing database. The
+    // statements go to postgres as one script in one transaction, so a failure leaves nothing half created.
+    // Returns true when the database or schema was cloned from a template of the current changelog, which leaves
+    // nothing to migrate.
+    boolean create(IsolationType isolationType, String dbOrSchema, String password) {
+        String template = getTemplate(isolationType);
+        try {
+            switch (isolationType) {
+                case DATABASE -> createDatabase(dbOrSchema, password, template);
+                case SCHEMA -> transactionTemplate.executeWithoutResult(status -> {
+                    execute(getSchemaScript(dbOrSchema, password));
+                    if (template != null) {
+                        cloneSchema(template, dbOrSchema);
+                    }
+                });
+                case SCHEMADISCRIMINATOR -> transactionTemplate.executeWithoutResult(status ->
+                        execute(getSchemaDiscriminatorScript(dbOrSchema, password)));
+                case DISCRIMINATOR -> { }
+            }
+        } catch (DataAccessException e) {
+            throw new TenantCreationException("Error when creating " + (isolationType == IsolationType.DATABASE
+                    ? "db: " : "schema: ") + dbOrSchema, e);
+        }
+        return template != null;
+    }
+
+    void migrate(String tenantId, IsolationType isolationType, String dbOrSchema, String password) {
+        useThreadLocalScopes();
+        try {
+            switch (isolationType) {
+                case DATABASE:
+                    try (Connection connection = DriverManager.getConnection(getUrl(isolationType, dbOrSchema),
+                            dbOrSchema, password)) {
+                        DataSource tenantDataSource = new SingleConnectionDataSource(connection, false);
+                        runLiquibase(tenantDataSource);
+                    } catch (SQLException e) {
+                        throw new TenantCreationException("Error when populating db: ", e);
+                    }
+                    break;
+
+                case SCHEMA:
+                    runLiquibase(dataSource, dbOrSchema);
+                    break;
+
+                case DISCRIMINATOR:
+                    //all discriminator tenants share the database, it is up to date once one was created with the changelog
+                    if (tenantRepository.existsByIsolationTypeAndUrlAndChangelogFingerprint(isolationType,
+                            getUrl(isolationType, dbOrSchema), getChangeLogFingerprint(isolationType))) {
+                        log.info("Skipping Liquibase for tenant {}, database {} is up to date", tenantId, databaseName);
+                        break;
+                    }
+                    runLiquibase(dataSource);
+                    break;
+
+                case SCHEMADISCRIMINATOR: //hierarchy support
+                    boolean hierarchySupport = true;
+                    runLiquibase(dataSource, dbOrSchema, hierarchySupport);
+                    break;
+            }
+        } catch (LiquibaseException e) {
+            throw new TenantCreationException(isolationType == IsolationType.DATABASE
+                    ? "Error when populating db: " : "Error when populating schema: ", e);
+        }
+    }
+
+    // Hands a provisioned spare over to a tenant. Renaming keeps ownership, grants and default privileges, which
+    // refer to the schema, database and users by oid. Must run in the transaction claiming the spare.
+    void assignSpare(IsolationType isolationType, String spare, String dbOrSchema, String password) {
+        ProvisioningScript script = new ProvisioningScript();
+        switch (isolationType) {
+            case DATABASE -> script.add("ALTER DATABASE " + identifier(spare) + " RENAME TO " + identifier(dbOrSchema));
+            case SCHEMA -> script.add("ALTER SCHEMA " + identifier(spare) + " RENAME TO " + identifier(dbOrSchema));
+            case SCHEMADISCRIMINATOR, DISCRIMINATOR ->
+                    throw new IllegalArgumentException("No spares for " + isolationType);
+        }
+        renameUser(script, spare, dbOrSchema, password);
+        execute(script);
+    }
+
+    //postgres clears md5 passwords on rename, the tenant's password is set right after
+    private static void renameUser(ProvisioningScript script, String user, String newName, String password) {
+        script.add("ALTER USER " + identifier(user) + " RENAME TO " + identifier(newName));
+        script.add("ALTER USER " + identifier(newName) + " WITH ENCRYPTED PASSWORD " + literal(password));
+    }
+
+    void dropSpare(IsolationType isolationType, String spare) {
+        ProvisioningScript script = new ProvisioningScript();
+        switch (isolationType) {
+            //DROP DATABASE cannot run in a transaction
+            case DATABASE -> execute(new ProvisioningScript().add("DROP DATABASE IF EXISTS " + identifier(spare)));
+            case SCHEMA -> script.add("DROP SCHEMA IF EXISTS " + identifier(spare) + " CASCADE");
+            case SCHEMADISCRIMINATOR, DISCRIMINATOR ->
+                    throw new IllegalArgumentException("No spares for " + isolationType);
+        }
+        //privileges and default privileges granted to the user keep it from being dropped
+        script.add("DROP OWNED BY " + identifier(spare)).add("DROP USER " + identifier(spare));
+        transactionTemplate.executeWithoutResult(status -> execute(script));
+    }
+
+    // Recorded with the tenant so customer services skip Liquibase for it, the bundled changelog does not change at
+    // runtime so each fingerprint is computed once
+    String getChangeLogFingerprint(IsolationType isolationType) {
+        return changeLogFingerprints.computeIfAbsent(isolationType, type -> switch (type) {
+            case DATABASE, DISCRIMINATOR -> ChangeLogFingerprint.of(resourceLoader,
+                    tenantLiquibaseProperties.getChangeLog(), LIQUIBASE_CONTEXT_NON_HIERARCHY);
+            case SCHEMA -> ChangeLogFingerprint.of(resourceLoader, liquibaseChangeLog, LIQUIBASE_CONTEXT_NON_HIERARCHY);
+            case SCHEMADISCRIMINATOR -> ChangeLogFingerprint.of(resourceLoader, liquibaseChangeLog,
+                    LIQUIBASE_CONTEXT_HIERARCHY);
+        });
+    }
+
+    // Liquibase keeps its scope in a single static field by default, which provisioning workers and the spare
+    // replenisher migrating at the same time would overwrite
+    private static synchronized void useThreadLocalScopes() {
+        if (!threadLocalScopes) {
+            Scope.setScopeManager(new ThreadLocalScopeManager());
+            threadLocalScopes = true;
+        }
+    }
+
+    //one round trip for the whole script, which runs as a single implicit transaction unless one is open already
+    private void execute(ProvisioningScript script) {
+        jdbcTemplate.execute((StatementCallback<Boolean>) stmt -> stmt.execute(script.getSql()));
+    }
+
+    //logged in as the admin user, for statements that only apply to the database they run in
+    private void executeIn(String db, ProvisioningScript script) {
+        try (Connection connection = DriverManager.getConnection(urlPrefix + identifier(db), masterUsername,
+                masterPassword);
+             Statement statement = connection.createStatement()) {
+            statement.execute(script.getSql());
+        } catch (SQLException e) {
+            throw new TenantCreationException("Error when preparing db: " + db, e);
+        }
+    }
+
+    // CREATE DATABASE cannot run in a transaction, the database is dropped again when its user cannot be created
+    private void createDatabase(String db, String password, String template) {
+        execute(new ProvisioningScript().add("CREATE DATABASE " + identifier(db)
+                + (template == null ? "" : " TEMPLATE " + template)));
+        boolean userCreated = false;
+        try {
+            transactionTemplate.executeWithoutResult(status -> execute(new ProvisioningScript()
+                    .add("CREATE USER " + identifier(db) + " WITH ENCRYPTED PASSWORD " + literal(password))
+                    .add("GRANT ALL PRIVILEGES ON DATABASE " + identifier(db) + " TO " + identifier(db))));
+            userCreated = true;
+            //postgres 15 no longer lets every user create in the public schema, the tenant user migrates it later
+            ProvisioningScript script = new ProvisioningScript()
+                    .add("GRANT USAGE, CREATE ON SCHEMA public TO " + identifier(db));
+            if (template != null) {
+                //the tenant user owns its tables, as if it had run Liquibase itself
+                script.add("REASSIGN OWNED BY " + template + " TO " + identifier(db))
+                        .add("DROP OWNED BY " + template);
+            }
+            executeIn(db, script);
+        } catch (RuntimeException e) {
+            try {
+                execute(new ProvisioningScript().add("DROP DATABASE IF EXISTS " + identifier(db)));
+                if (userCreated) {
+                    execute(new ProvisioningScript().add("DROP USER IF EXISTS " + identifier(db)));
+                }
+            } catch (DataAccessException dropFailure) {
+                e.addSuppressed(dropFailure);
+            }
+            throw e;
+        }
+    }
+
+    // Copies the tables of the template schema with their columns, defaults and check constraints, and their rows,
+    // which includes the Liquibase changelog table. Primary keys, unique constraints and indexes are recreated from
+    // the template's definitions, so they keep the names later changeSets may refer to. Must run in the
+    // transaction creating the schema.
+    private void cloneSchema(String template, String schema) {
+        String target = identifier(schema);
+        ProvisioningScript script = new ProvisioningScript();
+        for (String table : jdbcTemplate.queryForList("SELECT c.relname FROM pg_class c JOIN pg_namespace n "
+                + "ON n.oid = c.relnamespace WHERE n.nspname = ? AND c.relkind = 'r' ORDER BY c.relname",
+                String.class, template)) {
+            String source = template + "." + quoted(table);
+            script.add("CREATE TABLE " + target + "." + quoted(table) + " (LIKE " + source
+                            + " INCLUDING ALL EXCLUDING INDEXES)")
+                    .add("INSERT INTO " + target + "." + quoted(table) + " OVERRIDING SYSTEM VALUE SELECT * FROM "
+                            + source);
+        }
+        jdbcTemplate.query("SELECT t.relname, k.conname, pg_get_constraintdef(k.oid) FROM pg_constraint k "
+                        + "JOIN pg_class t ON t.oid = k.conrelid JOIN pg_namespace n ON n.oid = t.relnamespace "
+                        + "WHERE n.nspname = ? AND k.contype IN ('p', 'u', 'x') ORDER BY t.relname, k.conname",
+                rs -> {
+                    script.add("ALTER TABLE " + target + "." + quoted(rs.getString(1)) + " ADD CONSTRAINT "
+                            + quoted(rs.getString(2)) + " " + rs.getString(3));
+                }, template);
+        //index definitions name the table qualified with the template schema
+        jdbcTemplate.query("SELECT pg_get_indexdef(i.indexrelid) FROM pg_index i JOIN pg_class t ON t.oid = i.indrelid "
+                        + "JOIN pg_namespace n ON n.oid = t.relnamespace WHERE n.nspname = ? AND NOT EXISTS ("
+                        + "SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid AND k.conrelid = i.indrelid)",
+                rs -> {
+                    script.add(rs.getString(1).replace(" ON " + template + ".", " ON " + target + "."));
+                }, template);
+        execute(script);
+    }
+
+    // The template of the current changelog for the isolation type, created and migrated on first use, or null when
+    // the isolation type is provisioned with Liquibase. Schema discriminator tenants keep using Liquibase, their
+    // changelog adds row level security policies that are not cloned.
+    private synchronized String getTemplate(IsolationType isolationType) {
+        if (!templatesEnabled || isolationType != IsolationType.DATABASE && isolationType != IsolationType.SCHEMA) {
+            return null;
+        }
+        String template = templates.get(isolationType);
+        if (template == null) {
+            useThreadLocalScopes();
+            template = identifier(TEMPLATE_PREFIX + getChangeLogFingerprint(isolationType).substring(0, 12));
+            try {
+                if (isolationType == IsolationType.DATABASE) {
+                    prepareDatabaseTemplate(template);
+                } else if (!prepareSchemaTemplate(template)) {
+                    return null;
+                }
+            } catch (RuntimeException | SQLException | LiquibaseException e) {
+                log.warn("Could not prepare " + isolationType + " template " + template + ", using Liquibase", e);
+                return null;
+            }
+            templates.put(isolationType, template);
+        }
+        return template;
+    }
+
+    // The template database is owned by the admin user and its objects by a role of the same name, which clones
+    // reassign to the tenant user. It is marked as template and closed for connections once migrated, so a template
+    // left over by a failed attempt is recreated.
+    private void prepareDatabaseTemplate(String template) throws SQLException, LiquibaseException {
+        List<Boolean> ready = jdbcTemplate.queryForList("SELECT datistemplate FROM pg_database WHERE datname = ?",
+                Boolean.class, template);
+        if (ready.equals(List.of(true))) {
+            return;
+        }
+        dropDatabaseTemplate(template);
+        long start = System.currentTimeMillis();
+        execute(new ProvisioningScript().add("CREATE DATABASE " + template));
+        execute(new ProvisioningScript().add("CREATE ROLE " + template + " NOLOGIN"));
+        try (Connection connection = DriverManager.getConnection(urlPrefix + template, masterUsername,
+                masterPassword)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("GRANT USAGE, CREATE ON SCHEMA public TO " + template + ";\nSET ROLE " + template);
+            }
+            runLiquibase(new SingleConnectionDataSource(connection, false));
+        }
+        execute(new ProvisioningScript().add("ALTER DATABASE " + template
+                + " WITH IS_TEMPLATE true ALLOW_CONNECTIONS false"));
+        log.info("Created template database {} in {} ms", template, System.currentTimeMillis() - start);
+        for (String outdated : jdbcTemplate.queryForList("SELECT datname FROM pg_database WHERE datname ~ ? "
+                + "AND datname <> ?", String.class, TEMPLATE_NAME_REGEXP, template)) {
+            try {
+                dropDatabaseTemplate(outdated);
+            } catch (DataAccessException e) {
+                log.warn("Could not drop template database " + outdated + " of an older changelog", e);
+            }
+        }
+    }
+
+    //the role cannot be dropped while tenants cloned before their ownership was reassigned still refer to it
+    private void dropDatabaseTemplate(String template) {
+        if (!jdbcTemplate.queryForList("SELECT 1 FROM pg_database WHERE datname = ?", Integer.class, template)
+                .isEmpty()) {
+            execute(new ProvisioningScript().add("ALTER DATABASE " + identifier(template) + " WITH IS_TEMPLATE false"));
+            execute(new ProvisioningScript().add("DROP DATABASE " + identifier(template)));
+        }
+        execute(new ProvisioningScript().add("DROP ROLE IF EXISTS " + identifier(template)));
+    }
+
+    // The template schema is migrated under a temporary name and renamed once complete, so an existing template
+    // schema is always fully migrated. Returns false when the changelog creates objects the clone cannot copy.
+    private boolean prepareSchemaTemplate(String template) throws LiquibaseException {
+        if (jdbcTemplate.queryForList("SELECT 1 FROM pg_namespace WHERE nspname = ?", Integer.class, template)
+                .isEmpty()) {
+            long start = System.currentTimeMillis();
+            String building = template + "_new";
+            execute(new ProvisioningScript().add("DROP SCHEMA IF EXISTS " + building + " CASCADE")
+                    .add("CREATE SCHEMA " + building));
+            runLiquibase(dataSource, building);
+            execute(new ProvisioningScript().add("ALTER SCHEMA " + building + " RENAME TO " + template));
+            log.info("Created template schema {} in {} ms", template, System.currentTimeMillis() - start);
+            for (String outdated : jdbcTemplate.queryForList("SELECT nspname FROM pg_namespace WHERE nspname ~ ? "
+                    + "AND nspname <> ?", String.class, TEMPLATE_NAME_REGEXP, template)) {
+                execute(new ProvisioningScript().add("DROP SCHEMA " + quoted(outdated) + " CASCADE"));
+            }
+        }
+        Integer uncloneable = jdbcTemplate.queryForObject(UNCLONEABLE_OBJECTS_QUERY, Integer.class, template);
+        if (uncloneable == null || uncloneable > 0) {
+            log.warn("Template schema {} has objects other than tables, indexes and identity sequences, using "
+                    + "Liquibase for schema tenants", template);
+            return false;
+        }
+        return true;
+    }
+
+    private void runLiquibase(DataSource dataSource) throws LiquibaseException {
+        SpringLiquibase liquibase = getSpringLiquibase(dataSource);
+        liquibase.afterPropertiesSet();
+    }
+
+    ProvisioningScript getSchemaScript(String schema, String password) {
+        ProvisioningScript script = new ProvisioningScript();
+        addSchema(script, identifier(schema), password);
+        grantToSharedPoolUser(script, schema);
+        return script;
+    }
+
+    //hierarchy support, PostgreSQL row level security. RLS policies are by default not applied for the table owner,
+    //as table owner must be able to access all rows for administrative purposes. So we need to add an app level database user
+    ProvisioningScript getSchemaDiscriminatorScript(String schema, String password) {
+        ProvisioningScript script = new ProvisioningScript();
+        schema = identifier(schema);
+        //schema and table owner user creation
+        addSchema(script, schema, password);
+
+        //add app level db user
+        String user = identifier(schema + "user");
+        script.add("CREATE USER " + user + " WITH ENCRYPTED PASSWORD " + literal(password))
+                .add("GRANT CONNECT ON DATABASE " + identifier(databaseName) + " TO " + user)
+                .add("ALTER DEFAULT PRIVILEGES IN SCHEMA " + schema
+                        + " GRANT SELECT, INSERT, UPDATE, DELETE, REFERENCES ON TABLES TO " + user)
+                .add("ALTER DEFAULT PRIVILEGES IN SCHEMA " + schema + " GRANT USAGE ON SEQUENCES TO " + user)
+                .add("ALTER DEFAULT PRIVILEGES IN SCHEMA " + schema + " GRANT EXECUTE ON FUNCTIONS TO " + user);
+        grantToSharedPoolUser(script, schema);
+        grantToSharedPoolUser(script, user);
+        return script;
+    }
+
+    private void addSchema(ProvisioningScript script, String schema, String password) {
+        script.add("CREATE USER " + schema + " WITH ENCRYPTED PASSWORD " + literal(password))
+                .add(DATABASE_GRANT_LOCK)
+                .add("GRANT CONNECT ON DATABASE " + identifier(databaseName) + " TO " + schema)
+                .add("CREATE SCHEMA " + schema + " AUTHORIZATION " + schema)
+                .add("ALTER DEFAULT PRIVILEGES IN SCHEMA " + schema + " GRANT ALL PRIVILEGES ON TABLES TO " + schema)
+                .add("ALTER DEFAULT PRIVILEGES IN SCHEMA " + schema + " GRANT USAGE ON SEQUENCES TO " + schema)
+                .add("ALTER DEFAULT PRIVILEGES IN SCHEMA " + schema + " GRANT EXECUTE ON FUNCTIONS TO " + schema);
+    }
+
+    //customer service shared pool logs in as one user and switches to the tenant role with SET ROLE on checkout
+    private void grantToSharedPoolUser(ProvisioningScript script, String role) {
+        if (!sharedPoolUsername.isEmpty()) {
+            script.add("GRANT " + identifier(role) + " TO " + identifier(sharedPoolUsername));
+        }
+    }
+
+    private void runLiquibase(DataSource dataSource, String schema) throws LiquibaseException {
+        SpringLiquibase liquibase = getSpringLiquibase(dataSource, schema, false);
+        liquibase.afterPropertiesSet();
+    }
+
+    private void runLiquibase(DataSource dataSource, String schema, boolean hierarchySupport) throws LiquibaseException {
+        SpringLiquibase liquibase = getSpringLiquibase(dataSource, schema, hierarchySupport);
+        liquibase.afterPropertiesSet();
+    }
+
+    protected SpringLiquibase getSpringLiquibase(DataSource dataSource) {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setResourceLoader(resourceLoader);
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog(tenantLiquibaseProperties.getChangeLog());
+        //crucial in applying changeSets WITHOUT hierarchy support for database per tenant
+        liquibase.setContexts(LIQUIBASE_CONTEXT_NON_HIERARCHY);
+        liquibase.setDefaultSchema(tenantLiquibaseProperties.getDefaultSchema());
+        liquibase.setLiquibaseSchema(tenantLiquibaseProperties.getLiquibaseSchema());
+        liquibase.setLiquibaseTablespace(tenantLiquibaseProperties.getLiquibaseTablespace());
+        liquibase.setDatabaseChangeLogTable(tenantLiquibaseProperties.getDatabaseChangeLogTable());
+        liquibase.setDatabaseChangeLogLockTable(tenantLiquibaseProperties.getDatabaseChangeLogLockTable());
+        liquibase.setDropFirst(tenantLiquibaseProperties.isDropFirst());
+        liquibase.setShouldRun(tenantLiquibaseProperties.isEnabled());
+        liquibase.setChangeLogParameters(tenantLiquibaseProperties.getParameters());
+        liquibase.setRollbackFile(tenantLiquibaseProperties.getRollbackFile());
+        liquibase.setTestRollbackOnUpdate(tenantLiquibaseProperties.isTestRollbackOnUpdate());
+        return liquibase;
+    }
+
+    protected SpringLiquibase getSpringLiquibase(DataSource dataSource, String schema, boolean hierarchySupport) {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setResourceLoader(resourceLoader);
+        liquibase.setDataSource(dataSource);
+        liquibase.setDefaultSchema(schema);
+        liquibase.setChangeLog(liquibaseChangeLog);
+        //crucial in applying changeSets WITHOUT hierarchy support for schema per tenant
+        liquibase.setContexts(LIQUIBASE_CONTEXT_NON_HIERARCHY);
+        //for hierarchy support, need to apply changeSets specified with both contexts "main" and "hierarchy"
+        if (hierarchySupport) {
+            liquibase.setContexts(LIQUIBASE_CONTEXT_HIERARCHY);
+        }
+        liquibase.setDropFirst(liquibaseProperties.isDropFirst());
+        liquibase.setShouldRun(liquibaseProperties.isEnabled());
+        return liquibase;
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.wenqiglantz.service.tenantadmin.service;
+
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.IsolationType;
+import com.github.wenqiglantz.service.tenantadmin.domain.entity.Tenant;
+import com.github.wenqiglantz.service.tenantadmin.repository.TenantRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Reserve of provisioned and migrated schemas and databases, recorded in the master tenant_spare table. Onboarding
+ * claims a spare with the current changelog and renames it to the tenant's name instead of running DDL and
+ * Liquibase, the replenisher tops the reserve back up in the background and drops spares of older changelogs.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TenantSparePool {
+
+    private static final String SPARE_NAME_PREFIX = "spare";
+
+    private final TenantProvisioner tenantProvisioner;
+
+    private final TenantRepository tenantRepository;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final SecureRandom random = new SecureRandom();
+
+    @Value("${multitenancy.tenant.spare-pool.enabled:false}")
+    private boolean enabled;
+
+    @Value("${multitenancy.tenant.spare-pool.size.database:2}")
+    private int databaseSpares;
+
+    @Value("${multitenancy.tenant.spare-pool.size.schema:2}")
+    private int schemaSpares;
+
+    // Claims the oldest spare of the tenant's isolation type, renames it to the tenant's database or schema and saves
+    // the tenant, all in one transaction. Concurrent claims skip each other's spares rather than wait. Returns false
+    // when there is no spare to claim.
+    boolean claim(Tenant tenant, String password) {
+        if (getSize(tenant.getIsolationType()) == 0) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                String spare = takeSpare(tenant.getIsolationType());
+                if (spare == null) {
+                    return false;
+                }
+                tenantProvisioner.assignSpare(tenant.getIsolationType(), spare, tenant.getDbOrSchema(), password);
+                tenantRepository.save(tenant);
+                log.info("Tenant {} assigned spare {}", tenant.getTenantId(), spare);
+                return true;
+            }));
+        } catch (DataAccessException e) {
+            throw new TenantCreationException("Error when assigning spare to tenant: " + tenant.getTenantId(), e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${multitenancy.tenant.spare-pool.replenishInterval:60000}")
+    public void replenish() {
+        for (IsolationType isolationType : List.of(IsolationType.DATABASE, IsolationType.SCHEMA)) {
+            if (getSize(isolationType) > 0) {
+                try {
+                    dropOutdatedSpares(isolationType);
+                    createSpares(isolationType);
+                } catch (RuntimeException e) {
+                    log.warn("Could not replenish " + isolationType + " spares", e);
+                }
+            }
+        }
+    }
+
+    // A spare stays listed until it is dropped, so a failed drop is retried on the next replenish. Claims only take
+    // spares of the current changelog and never compete for these.
+    private void dropOutdatedSpares(IsolationType isolationType) {
+        List<String> spares;
+        while (!(spares = jdbcTemplate.queryForList("SELECT name FROM tenant_spare WHERE isolation_type = ? AND "
+                        + "changelog_fingerprint <> ? ORDER BY created_on LIMIT 1", String.class,
+                isolationType.name(), tenantProvisioner.getChangeLogFingerprint(isolationType))).isEmpty()) {
+            String spare = spares.get(0);
+            tenantProvisioner.dropSpare(isolationType, spare);
+            jdbcTemplate.update("DELETE FROM tenant_spare WHERE name = ?", spare);
+            log.info("Dropped {} spare {} of an older changelog", isolationType, spare);
+        }
+    }
+
+    private void createSpares(IsolationType isolationType) {
+        String fingerprint = tenantProvisioner.getChangeLogFingerprint(isolationType);
+        Integer spares = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM tenant_spare WHERE isolation_type = ? AND changelog_fingerprint = ?",
+                Integer.class, isolationType.name(), fingerprint);
+        for (int i = spares == null ? 0 : spares; i < getSize(isolationType); i++) {
+            String spare = SPARE_NAME_PREFIX + randomHex(6);
+            try {
+                //nobody logs in as a spare, claiming sets the tenant's password
+                tenantProvisioner.provision(spare, isolationType, spare, randomHex(16));
+                jdbcTemplate.update("INSERT INTO tenant_spare (name, isolation_type, changelog_fingerprint, "
+                        + "created_on) VALUES (?, ?, ?, now())", spare, isolationType.name(), fingerprint);
+            } catch (RuntimeException e) {
+                dropUnlisted(isolationType, spare);
+                throw e;
+            }
+            log.info("Provisioned {} spare {}", isolationType, spare);
+        }
+    }
+
+    //whatever part of a spare was created before provisioning failed, nothing else refers to it
+    private void dropUnlisted(IsolationType isolationType, String spare) {
+        try {
+            tenantProvisioner.dropSpare(isolationType, spare);
+        } catch (RuntimeException e) {
+            log.warn("Could not drop " + isolationType + " spare " + spare + " after failing to provision it", e);
+        }
+    }
+
+    // Removes a spare of the current changelog from the reserve, or returns null when there is none. Rows locked by
+    // concurrent claims are skipped.
+    private String takeSpare(IsolationType isolationType) {
+        List<String> spares = jdbcTemplate.queryForList("DELETE FROM tenant_spare WHERE name = ("
+                        + "SELECT name FROM tenant_spare WHERE isolation_type = ? AND changelog_fingerprint = ? "
+                        + "ORDER BY created_on LIMIT 1 FOR UPDATE SKIP LOCKED) RETURNING name",
+                String.class, isolationType.name(), tenantProvisioner.getChangeLogFingerprint(isolationType));
+        return spares.isEmpty() ? null : spares.get(0);
+    }
+
+    private String randomHex(int bytes) {
+        byte[] value = new byte[bytes];
+        random.nextBytes(value);
+        return HexFormat.of().formatHex(value);
+    }
+
+    // Discriminator tenants share an existing database, there is nothing to prepare for them. The row level security
+    // policy of a schema discriminator tenant names its schema, which a spare does not know yet.
+    private int getSize(IsolationType isolationType) {
+        if (!enabled) {
+            return 0;
+        }
+        return switch (isolationType) {
+            case DATABASE -> databaseSpares;
+            case SCHEMA -> schemaSpares;
+            case SCHEMADISCRIMINATOR, DISCRIMINATOR -> 0;
+        };
+    }
+}
@@ -9,25 +9,34 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.spec.KeySpec;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
 public class EncryptionService {
 
-    public String encrypt(String strToEncrypt, String secret, String salt) {
-        try {
-            byte[] iv = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-            IvParameterSpec ivspec = new IvParameterSpec(iv);
+    private static final IvParameterSpec IV = new IvParameterSpec(new byte[16]);
 
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec spec = new PBEKeySpec(secret.toCharArray(), salt.getBytes(), 65536, 256);
-            SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKey = new SecretKeySpec(tmp.getEncoded(), "AES");
+    //deriving a key takes tens of milliseconds by design, secret and salt come from config so derive each key once
+    private final Map<KeyId, SecretKeySpec> secretKeys = new ConcurrentHashMap<>();
+
+    //ciphers are not thread safe but can be re-initialized for every call
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/CBC/PKCS5Padding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
 
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivspec);
+    public String encrypt(String strToEncrypt, String secret, String salt) {
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(secret, salt), IV);
             return Base64.getEncoder().encodeToString(cipher.doFinal(strToEncrypt.getBytes("UTF-8")));
         } catch (Exception e) {
             log.error("Error while encrypting: ", e);
@@ -35,4 +44,32 @@ public class EncryptionService {
         }
     }
 
+    public String decrypt(String strToDecrypt, String secret, String salt) {
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, getSecretKey(secret, salt), IV);
+            return new String(cipher.doFinal(Base64.getDecoder().decode(strToDecrypt)), "UTF-8");
+        } catch (Exception e) {
+            log.error("Error while decrypting: ", e);
+            return null;
+        }
+    }
+
+    private SecretKeySpec getSecretKey(String secret, String salt) {
+        return secretKeys.computeIfAbsent(new KeyId(secret, salt), EncryptionService::deriveSecretKey);
+    }
+
+    private static SecretKeySpec deriveSecretKey(KeyId keyId) {
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            KeySpec spec = new PBEKeySpec(keyId.secret().toCharArray(), keyId.salt().getBytes(), 65536, 256);
+            SecretKey tmp = factory.generateSecret(spec);
+            return new SecretKeySpec(tmp.getEncoded(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record KeyId(String secret, String salt) {
+    }
 }
@@ -0,0 +1,92 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver handing out {@link StubConnection}s for jdbc:stub: urls, so tenant pools can be created without a
+ * database. Opening a connection and every statement and validation take no time unless a benchmark sets
+ * connectNanos and roundTripNanos, and the open connections are counted like database backends.
+ */
+public class StubDriver implements Driver {
+
+    static final String URL_PREFIX = "jdbc:stub:";
+
+    //backend startup and authentication
+    static volatile long connectNanos;
+
+    static volatile long roundTripNanos;
+
+    private static final AtomicInteger openConnections = new AtomicInteger();
+
+    private static final AtomicInteger peakConnections = new AtomicInteger();
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        await(connectNanos);
+        return new StubConnection();
+    }
+
+    static void await(long nanos) {
+        if (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    static void opened() {
+        peakConnections.accumulateAndGet(openConnections.incrementAndGet(), Math::max);
+    }
+
+    static void closed() {
+        openConnections.decrementAndGet();
+    }
+
+    static int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    //the most connections open at once since the last reset
+    static int resetPeakConnections() {
+        return peakConnections.getAndSet(openConnections.get());
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
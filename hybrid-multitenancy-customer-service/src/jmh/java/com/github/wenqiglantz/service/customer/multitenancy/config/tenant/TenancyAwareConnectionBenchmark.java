@@ -0,0 +1,132 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call overhead of the connection handed to Hibernate: the former java.lang.reflect.Proxy against the
+ * delegating {@link TenancyAwareConnection}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TenancyAwareConnectionBenchmark {
+
+    private Connection target;
+
+    private Connection reflectiveProxy;
+
+    private Connection delegatingWrapper;
+
+    @Setup
+    public void setUp() {
+        target = new StubConnection();
+        reflectiveProxy = reflectiveProxy(target);
+        delegatingWrapper = new TenancyAwareConnection(target, TenancyAwareConnectionBenchmark::clearTenantId);
+    }
+
+    @Benchmark
+    public boolean reflectiveProxyGetAutoCommit() throws SQLException {
+        return reflectiveProxy.getAutoCommit();
+    }
+
+    @Benchmark
+    public boolean delegatingWrapperGetAutoCommit() throws SQLException {
+        return delegatingWrapper.getAutoCommit();
+    }
+
+    @Benchmark
+    public Connection reflectiveProxyTransaction() throws SQLException {
+        return transaction(reflectiveProxy);
+    }
+
+    @Benchmark
+    public Connection delegatingWrapperTransaction() throws SQLException {
+        return transaction(delegatingWrapper);
+    }
+
+    @Benchmark
+    public void reflectiveProxyCheckout() throws SQLException {
+        try (Connection connection = reflectiveProxy(target)) {
+            transaction(connection);
+        }
+    }
+
+    @Benchmark
+    public void delegatingWrapperCheckout() throws SQLException {
+        try (Connection connection = new TenancyAwareConnection(target, TenancyAwareConnectionBenchmark::clearTenantId)) {
+            transaction(connection);
+        }
+    }
+
+    // the JDBC calls Hibernate and Spring make around a single statement transaction
+    private static Connection transaction(Connection connection) throws SQLException {
+        if (connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+        }
+        connection.prepareStatement("select 1");
+        connection.commit();
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    private static void clearTenantId(Connection connection) throws SQLException {
+        try (Statement sql = connection.createStatement()) {
+            sql.execute("RESET app.tenantid");
+        }
+    }
+
+    // the invocation handler HybridMultiTenantConnectionProvider used before TenancyAwareConnection
+    private static Connection reflectiveProxy(Connection target) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Tenant-aware proxy for target Connection [" + target + "]";
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    } else {
+                        return method.invoke(target, args);
+                    }
+                case "isWrapperFor":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return true;
+                    } else {
+                        return method.invoke(target, args);
+                    }
+                case "getTargetConnection":
+                    return target;
+                default:
+                    if (method.getName().equals("close")) {
+                        clearTenantId(target);
+                    }
+                    return method.invoke(target, args);
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                new Class[]{ConnectionProxy.class}, handler);
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.github.wenqiglantz.service.customer.multitenancy.IsolationType;
+import com.github.wenqiglantz.service.customer.multitenancy.Tenant;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantConstants;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantInterceptor;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantRepository;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantService;
+import com.github.wenqiglantz.service.customer.util.EncryptionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tenancy work every request goes through: TenantInterceptor, tenant identifier resolution, the provider's
+ * getConnection with its session settings, and closing the connection. Tenant pools are real Hikari pools over
+ * {@link StubDriver} connections, all tenants are loaded before measuring and requests visit them round robin.
+ * sharedPool only makes a difference for the SCHEMA and SCHEMADISCRIMINATOR isolation types, SCHEMADISCRIMINATOR
+ * requests are child tenant requests running under row level security.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TenantConnectionPathBenchmark {
+
+    static final String URL_PREFIX = StubDriver.URL_PREFIX + "//localhost:5432/";
+    static final String SECRET = "benchmarkSecret";
+    static final String SALT = "benchmarkSalt";
+
+    @Param({"DATABASE", "SCHEMA", "DISCRIMINATOR", "SCHEMADISCRIMINATOR"})
+    private IsolationType isolationType;
+
+    @Param({"false", "true"})
+    private boolean sharedPool;
+
+    @Param({"10", "1000", "10000"})
+    private int tenants;
+
+    private ConfigurableApplicationContext context;
+
+    private TenantInterceptor tenantInterceptor;
+
+    private CurrentTenantIdentifierResolverImpl tenantResolver;
+
+    private HybridMultiTenantConnectionProvider connectionProvider;
+
+    private ServletWebRequest[] requests;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, Tenant> registry = new HashMap<>();
+        EncryptionService encryptionService = new EncryptionService();
+        String password = encryptionService.encrypt("password", SECRET, SALT);
+        requests = new ServletWebRequest[tenants];
+        for (int i = 0; i < tenants; i++) {
+            Tenant tenant = tenant("tenant" + i, password);
+            registry.put(tenant.getTenantId(), tenant);
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/customers");
+            if (isolationType == IsolationType.SCHEMADISCRIMINATOR) {
+                request.addHeader(TenantConstants.X_TENANT_ID, "child" + i);
+                request.addHeader(TenantConstants.X_PARENT_TENANT_ID, tenant.getTenantId());
+            } else {
+                request.addHeader(TenantConstants.X_TENANT_ID, tenant.getTenantId());
+            }
+            requests[i] = new ServletWebRequest(request);
+        }
+
+        //command line arguments, application.yml would take precedence over default properties
+        String[] args = {
+                "--logging.level.root=WARN",
+                "--logging.level.com.github.wenqiglantz=WARN",
+                "--multitenancy.tenant.datasource.url-prefix=" + URL_PREFIX,
+                "--multitenancy.tenant.datasource.shared-pool.enabled=" + sharedPool,
+                "--multitenancy.datasource-cache.maximumSize=" + tenants,
+                "--multitenancy.tenant.lookup-cache.maximumSize=" + tenants,
+                "--encryption.secret=" + SECRET,
+                "--encryption.salt=" + SALT
+        };
+        context = new SpringApplicationBuilder(BenchmarkConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .initializers(applicationContext -> applicationContext.getBeanFactory()
+                        .registerSingleton("masterTenantRepository", tenantRepository(registry)))
+                .run(args);
+        tenantInterceptor = context.getBean(TenantInterceptor.class);
+        tenantResolver = context.getBean(CurrentTenantIdentifierResolverImpl.class);
+        connectionProvider = context.getBean(HybridMultiTenantConnectionProvider.class);
+        registry.keySet().forEach(tenantId -> connectionProvider.loadTenantDataSource(tenantId).join());
+        //one request per tenant opens the pools created on first use, like the RLS pools
+        for (int i = 0; i < tenants; i++) {
+            try {
+                request();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean request() throws SQLException {
+        ServletWebRequest request = requests[next];
+        next = next + 1 == requests.length ? 0 : next + 1;
+        tenantInterceptor.preHandle(request);
+        try {
+            String tenantIdentifier = tenantResolver.resolveCurrentTenantIdentifier();
+            Connection connection = connectionProvider.getConnection(tenantIdentifier);
+            boolean autoCommit = connection.getAutoCommit();
+            connectionProvider.releaseConnection(tenantIdentifier, connection);
+            return autoCommit;
+        } finally {
+            tenantInterceptor.postHandle(request, null);
+        }
+    }
+
+    // tenant rows as the admin service writes them
+    private Tenant tenant(String tenantId, String password) {
+        String url = switch (isolationType) {
+            case DATABASE -> URL_PREFIX + tenantId;
+            case SCHEMA, SCHEMADISCRIMINATOR -> URL_PREFIX + "customerdb?currentSchema=" + tenantId;
+            case DISCRIMINATOR -> URL_PREFIX + "customerdb";
+        };
+        return Tenant.builder()
+                .tenantId(tenantId)
+                .isolationType(isolationType)
+                .dbOrSchema(tenantId)
+                .url(url)
+                .userName(tenantId)
+                .password(password)
+                .build();
+    }
+
+    static TenantRepository tenantRepository(Map<String, Tenant> registry) {
+        return (TenantRepository) Proxy.newProxyInstance(TenantRepository.class.getClassLoader(),
+                new Class[]{TenantRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findByTenantId", "findById" -> Optional.ofNullable(registry.get((String) args[0]));
+                    case "existsById" -> registry.containsKey((String) args[0]);
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "TenantRepository stub";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Configuration
+    @EnableConfigurationProperties
+    @Import({TenantDataSourceConfiguration.class, HybridMultiTenantConnectionProvider.class,
+            TenantConnectionBudget.class, TenantDataSourceReaper.class, TenantPoolMetrics.class,
+            TenantCircuitBreaker.class, CurrentTenantIdentifierResolverImpl.class, TenantService.class,
+            TenantInterceptor.class, EncryptionService.class})
+    static class BenchmarkConfiguration {
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        public DataSourceProperties masterDataSourceProperties() {
+            DataSourceProperties properties = new DataSourceProperties();
+            properties.setDriverClassName(StubDriver.class.getName());
+            properties.setUrl(URL_PREFIX + "customerdb");
+            properties.setUsername("postgres");
+            properties.setPassword("postgres");
+            return properties;
+        }
+
+        @Bean
+        public DataSource masterDataSource() {
+            return new SimpleDriverDataSource(new StubDriver(), URL_PREFIX + "customerdb");
+        }
+    }
+}
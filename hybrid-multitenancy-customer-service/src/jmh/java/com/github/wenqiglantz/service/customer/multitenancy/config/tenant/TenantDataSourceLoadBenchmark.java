@@ -0,0 +1,136 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.github.wenqiglantz.service.customer.multitenancy.IsolationType;
+import com.github.wenqiglantz.service.customer.multitenancy.Tenant;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantRepository;
+import com.github.wenqiglantz.service.customer.util.EncryptionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of a DATABASE tenant on the datasource loader path: master lookup, password decryption and the pool
+ * bootstrap opening its first connection, for a tenant never loaded before. Against the steady state, a checkout
+ * from a tenant whose pool is cached. The master lookup takes one roundTripMicros and the stub driver connectMicros
+ * to open a connection. Loaded tenants beyond the cache size are evicted and their pools reaped as in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TenantDataSourceLoadBenchmark {
+
+    private static final int CACHED_TENANTS = 100;
+
+    @Param("3000")
+    private long connectMicros;
+
+    @Param("200")
+    private long roundTripMicros;
+
+    private ConfigurableApplicationContext context;
+
+    private HybridMultiTenantConnectionProvider connectionProvider;
+
+    private String[] cachedTenants;
+
+    private int nextCached;
+
+    private long nextCold;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StubDriver.connectNanos = TimeUnit.MICROSECONDS.toNanos(connectMicros);
+        StubDriver.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+        String[] args = {
+                "--logging.level.root=WARN",
+                "--logging.level.com.github.wenqiglantz=WARN",
+                "--multitenancy.tenant.datasource.url-prefix=" + TenantConnectionPathBenchmark.URL_PREFIX,
+                "--multitenancy.datasource-cache.maximumSize=" + CACHED_TENANTS * 10,
+                "--encryption.secret=" + TenantConnectionPathBenchmark.SECRET,
+                "--encryption.salt=" + TenantConnectionPathBenchmark.SALT
+        };
+        String password = new EncryptionService().encrypt("password", TenantConnectionPathBenchmark.SECRET,
+                TenantConnectionPathBenchmark.SALT);
+        context = new SpringApplicationBuilder(TenantConnectionPathBenchmark.BenchmarkConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .initializers(applicationContext -> applicationContext.getBeanFactory()
+                        .registerSingleton("masterTenantRepository", tenantRepository(password)))
+                .run(args);
+        connectionProvider = context.getBean(HybridMultiTenantConnectionProvider.class);
+        cachedTenants = new String[CACHED_TENANTS];
+        for (int i = 0; i < CACHED_TENANTS; i++) {
+            cachedTenants[i] = "cached" + i;
+            connectionProvider.loadTenantDataSource(cachedTenants[i]).join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        StubDriver.connectNanos = 0;
+        StubDriver.roundTripNanos = 0;
+    }
+
+    @Benchmark
+    public Object coldStart() {
+        return connectionProvider.loadTenantDataSource("cold" + nextCold++).join();
+    }
+
+    @Benchmark
+    public boolean steadyState() throws SQLException {
+        String tenantIdentifier = cachedTenants[nextCached];
+        nextCached = nextCached + 1 == cachedTenants.length ? 0 : nextCached + 1;
+        Connection connection = connectionProvider.getConnection(tenantIdentifier);
+        boolean autoCommit = connection.getAutoCommit();
+        connectionProvider.releaseConnection(tenantIdentifier, connection);
+        return autoCommit;
+    }
+
+    // every tenant id exists, each lookup is one round trip to the master database
+    private static TenantRepository tenantRepository(String password) {
+        return (TenantRepository) Proxy.newProxyInstance(TenantRepository.class.getClassLoader(),
+                new Class[]{TenantRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findByTenantId", "findById" -> {
+                        StubDriver.await(StubDriver.roundTripNanos);
+                        String tenantId = (String) args[0];
+                        yield Optional.of(Tenant.builder()
+                                .tenantId(tenantId)
+                                .isolationType(IsolationType.DATABASE)
+                                .dbOrSchema(tenantId)
+                                .url(TenantConnectionPathBenchmark.URL_PREFIX + tenantId)
+                                .userName(tenantId)
+                                .password(password)
+                                .build());
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "TenantRepository stub";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.github.wenqiglantz.service.customer.multitenancy.IsolationType;
+import com.github.wenqiglantz.service.customer.multitenancy.Tenant;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantConstants;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantInterceptor;
+import com.github.wenqiglantz.service.customer.util.EncryptionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection acquisition of SCHEMA tenants with a pool per tenant against one pool shared by all schemas of the
+ * database. Only getConnection is timed, including the role and search_path switch a shared pool connection needs
+ * when it served another tenant last. Each request then holds its connection for holdMicros, standing in for the
+ * queries, while the other threads acquire theirs. The stub driver takes connectMicros to open a connection and
+ * roundTripMicros per statement. The most stub connections open at once, i.e. database backends, are printed after
+ * every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class TenantPoolSharingBenchmark {
+
+    @Param({"false", "true"})
+    private boolean sharedPool;
+
+    @Param({"10", "100", "1000"})
+    private int tenants;
+
+    @Param("3000")
+    private long connectMicros;
+
+    @Param("200")
+    private long roundTripMicros;
+
+    @Param("1000")
+    private long holdMicros;
+
+    private ConfigurableApplicationContext context;
+
+    private TenantInterceptor tenantInterceptor;
+
+    private CurrentTenantIdentifierResolverImpl tenantResolver;
+
+    private HybridMultiTenantConnectionProvider connectionProvider;
+
+    private ServletWebRequest[] requests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StubDriver.connectNanos = TimeUnit.MICROSECONDS.toNanos(connectMicros);
+        StubDriver.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+        Map<String, Tenant> registry = new HashMap<>();
+        String password = new EncryptionService().encrypt("password", TenantConnectionPathBenchmark.SECRET,
+                TenantConnectionPathBenchmark.SALT);
+        requests = new ServletWebRequest[tenants];
+        for (int i = 0; i < tenants; i++) {
+            String tenantId = "tenant" + i;
+            registry.put(tenantId, Tenant.builder()
+                    .tenantId(tenantId)
+                    .isolationType(IsolationType.SCHEMA)
+                    .dbOrSchema(tenantId)
+                    .url(TenantConnectionPathBenchmark.URL_PREFIX + "customerdb?currentSchema=" + tenantId)
+                    .userName(tenantId)
+                    .password(password)
+                    .build());
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/customers");
+            request.addHeader(TenantConstants.X_TENANT_ID, tenantId);
+            requests[i] = new ServletWebRequest(request);
+        }
+        String[] args = {
+                "--logging.level.root=WARN",
+                "--logging.level.com.github.wenqiglantz=WARN",
+                "--multitenancy.tenant.datasource.url-prefix=" + TenantConnectionPathBenchmark.URL_PREFIX,
+                "--multitenancy.tenant.datasource.shared-pool.enabled=" + sharedPool,
+                "--multitenancy.datasource-cache.maximumSize=" + tenants,
+                "--multitenancy.tenant.lookup-cache.maximumSize=" + tenants,
+                "--encryption.secret=" + TenantConnectionPathBenchmark.SECRET,
+                "--encryption.salt=" + TenantConnectionPathBenchmark.SALT
+        };
+        context = new SpringApplicationBuilder(TenantConnectionPathBenchmark.BenchmarkConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .initializers(applicationContext -> applicationContext.getBeanFactory()
+                        .registerSingleton("masterTenantRepository",
+                                TenantConnectionPathBenchmark.tenantRepository(registry)))
+                .run(args);
+        tenantInterceptor = context.getBean(TenantInterceptor.class);
+        tenantResolver = context.getBean(CurrentTenantIdentifierResolverImpl.class);
+        connectionProvider = context.getBean(HybridMultiTenantConnectionProvider.class);
+        registry.keySet().forEach(tenantId -> connectionProvider.loadTenantDataSource(tenantId).join());
+        StubDriver.resetPeakConnections();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printBackends() {
+        System.out.printf("%n%d backends at most, %d open%n", StubDriver.resetPeakConnections(),
+                StubDriver.getOpenConnections());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        StubDriver.connectNanos = 0;
+        StubDriver.roundTripNanos = 0;
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+
+        private String tenantIdentifier;
+
+        private ServletWebRequest request;
+
+        private Connection connection;
+
+        @Setup(Level.Invocation)
+        public void begin(TenantPoolSharingBenchmark benchmark) {
+            request = benchmark.requests[ThreadLocalRandom.current().nextInt(benchmark.requests.length)];
+            benchmark.tenantInterceptor.preHandle(request);
+            tenantIdentifier = benchmark.tenantResolver.resolveCurrentTenantIdentifier();
+        }
+
+        @TearDown(Level.Invocation)
+        public void end(TenantPoolSharingBenchmark benchmark) throws SQLException {
+            try {
+                StubDriver.await(TimeUnit.MICROSECONDS.toNanos(benchmark.holdMicros));
+                benchmark.connectionProvider.releaseConnection(tenantIdentifier, connection);
+            } finally {
+                benchmark.tenantInterceptor.postHandle(request, null);
+            }
+        }
+    }
+
+    @Benchmark
+    public Connection acquire(Request request) throws SQLException {
+        request.connection = connectionProvider.getConnection(request.tenantIdentifier);
+        return request.connection;
+    }
+}
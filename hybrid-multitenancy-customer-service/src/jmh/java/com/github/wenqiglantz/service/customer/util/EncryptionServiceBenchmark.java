@@ -0,0 +1,50 @@
+package com.github.wenqiglantz.service.customer.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decrypting a tenant password: a fresh {@link EncryptionService} derives the key and creates a cipher like
+ * every call used to, a warm one reuses both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionServiceBenchmark {
+
+    private static final String SECRET = "verySecret";
+    private static final String SALT = "f1nd1ngn3m0";
+
+    private EncryptionService encryptionService;
+
+    private String encryptedPassword;
+
+    @Setup
+    public void setUp() {
+        encryptionService = new EncryptionService();
+        encryptedPassword = encryptionService.encrypt("tenantPassword", SECRET, SALT);
+    }
+
+    @Benchmark
+    public String decryptDerivingKey() {
+        return new EncryptionService().decrypt(encryptedPassword, SECRET, SALT);
+    }
+
+    @Benchmark
+    public String decryptCachedKey() {
+        return encryptionService.decrypt(encryptedPassword, SECRET, SALT);
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.wenqiglantz.service.customer.data;
+
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class CustomerBulkResult {
+
+    //records read from the request, up to and including an unreadable one
+    int received;
+
+    int created;
+
+    List<Failure> failures;
+
+    @Value
+    public static class Failure {
+
+        //position of the record in the request, starting at 0
+        int index;
+
+        //null when the record could not be read
+        String customerId;
+
+        String error;
+    }
+}
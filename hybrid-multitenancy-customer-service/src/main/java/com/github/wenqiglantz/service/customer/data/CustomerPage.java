@@ -0,0 +1,14 @@
+package com.github.wenqiglantz.service.customer.data;
+
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class CustomerPage {
+
+    List<CustomerVO> customers;
+
+    //null on the last page
+    String nextCursor;
+}
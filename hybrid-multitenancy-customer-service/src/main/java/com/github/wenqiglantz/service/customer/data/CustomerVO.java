@@ -10,7 +10,7 @@ import lombok.NoArgsConstructor;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@JsonPropertyOrder({"customerId", "firstName", "lastName"})
+@JsonPropertyOrder({"customerId", "firstName", "lastName", "version"})
 public class CustomerVO {
 
     private String customerId;
@@ -18,4 +18,7 @@ public class CustomerVO {
     private String firstName;
 
     private String lastName;
+
+    //optimistic lock, a PUT or DELETE carrying the version read fails with 409 when the customer changed since
+    private Long version;
 }
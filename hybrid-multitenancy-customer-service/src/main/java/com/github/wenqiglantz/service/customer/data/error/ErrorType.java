@@ -5,6 +5,7 @@ public enum ErrorType {
     INVALID_REQUEST_DATA,
     UNKNOWN_DATA_ITEM,
     DATA_ALREADY_EXISTS,
+    DATA_VERSION_CONFLICT,
     UNEXPECTED_ERROR,
     UPSTREAM_SERVICE_ERROR,
     UNAUTHORIZED_REQUEST,
@@ -0,0 +1,9 @@
+package com.github.wenqiglantz.service.customer.data.exception;
+
+public class TenantUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public TenantUnavailableException(String message) {
+        super(message);
+    }
+}
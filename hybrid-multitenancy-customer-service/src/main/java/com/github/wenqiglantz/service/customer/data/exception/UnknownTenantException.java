@@ -0,0 +1,9 @@
+package com.github.wenqiglantz.service.customer.data.exception;
+
+public class UnknownTenantException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public UnknownTenantException(String message) {
+        super(message);
+    }
+}
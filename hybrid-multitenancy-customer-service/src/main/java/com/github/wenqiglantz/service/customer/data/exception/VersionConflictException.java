@@ -0,0 +1,9 @@
+package com.github.wenqiglantz.service.customer.data.exception;
+
+public class VersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public VersionConflictException(String message) {
+        super(message);
+    }
+}
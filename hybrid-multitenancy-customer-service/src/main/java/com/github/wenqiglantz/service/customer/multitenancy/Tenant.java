@@ -31,10 +31,17 @@ public class Tenant {
     @Column(name = "url")
     private String url;
 
+    @Column(name = "reader_url")
+    private String readerUrl;
+
     @Column(name = "username")
     private String userName;
 
     @Column(name = "password")
     private String password;
 
+    //fingerprint of the tenant changelog and contexts last applied to the tenant, see ChangeLogFingerprint
+    @Column(name = "changelog_fingerprint")
+    private String changelogFingerprint;
+
 }
\ No newline at end of file
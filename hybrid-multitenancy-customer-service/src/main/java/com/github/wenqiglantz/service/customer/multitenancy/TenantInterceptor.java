@@ -13,10 +13,14 @@ public class TenantInterceptor implements WebRequestInterceptor {
 
     private final String defaultTenant;
 
+    private final TenantService tenantService;
+
     @Autowired
     public TenantInterceptor(
-            @Value("${multitenancy.tenant.default-tenant:#{null}}") String defaultTenant) {
+            @Value("${multitenancy.tenant.default-tenant:#{null}}") String defaultTenant,
+            TenantService tenantService) {
         this.defaultTenant = defaultTenant;
+        this.tenantService = tenantService;
     }
 
     @Override
@@ -32,6 +36,11 @@ public class TenantInterceptor implements WebRequestInterceptor {
         if (request.getHeader(TenantConstants.X_PARENT_TENANT_ID) != null) {
             parentTenantId = request.getHeader(TenantConstants.X_PARENT_TENANT_ID);
         }
+        //reject unknown tenants before any session opens, the parent is the one whose datasource gets used
+        String dataSourceTenantId = TenantConstants.MINUS_ONE.equals(parentTenantId) ? tenantId : parentTenantId;
+        if (!TenantConstants.MINUS_ONE.equals(dataSourceTenantId)) {
+            tenantService.verifyTenant(dataSourceTenantId);
+        }
         TenantContext.setTenantId(tenantId, parentTenantId);
     }
 
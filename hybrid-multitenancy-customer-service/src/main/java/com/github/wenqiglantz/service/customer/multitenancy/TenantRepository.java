@@ -1,8 +1,10 @@
 package com.github.wenqiglantz.service.customer.multitenancy;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
@@ -10,4 +12,9 @@ public interface TenantRepository extends JpaRepository<Tenant, String> {
 
     @Query("select t from Tenant t where t.tenantId = :tenantId")
     Optional<Tenant> findByTenantId(@Param("tenantId") String tenantId);
+
+    @Transactional
+    @Modifying
+    @Query("update Tenant t set t.changelogFingerprint = :fingerprint where t.tenantId = :tenantId")
+    int updateChangelogFingerprint(@Param("tenantId") String tenantId, @Param("fingerprint") String fingerprint);
 }
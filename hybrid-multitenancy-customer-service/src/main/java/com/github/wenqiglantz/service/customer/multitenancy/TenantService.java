@@ -1,16 +1,78 @@
 package com.github.wenqiglantz.service.customer.multitenancy;
 
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.wenqiglantz.service.customer.data.exception.UnknownTenantException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.TimeUnit;
+
 @Service
-@RequiredArgsConstructor
 public class TenantService {
 
     private final TenantRepository tenantRepository;
 
+    private final Counter unknownTenantRequests;
+
+    // Whether a tenant id exists in the master tenant table. Unknown ids are remembered for a short while only, so
+    // requests for them are rejected without a master db query, yet a newly created tenant is served soon after.
+    private final LoadingCache<String, Boolean> tenantExists;
+
+    public TenantService(TenantRepository tenantRepository,
+                         MeterRegistry meterRegistry,
+                         @Value("${multitenancy.tenant.lookup-cache.maximumSize:10000}") long maximumSize,
+                         @Value("${multitenancy.tenant.lookup-cache.knownTtl:600}") long knownTtl,
+                         @Value("${multitenancy.tenant.lookup-cache.unknownTtl:30}") long unknownTtl) {
+        this.tenantRepository = tenantRepository;
+        this.unknownTenantRequests = Counter.builder("tenant.unknown.requests")
+                .description("Requests rejected because of an unknown tenant id")
+                .register(meterRegistry);
+        this.tenantExists = Caffeine.newBuilder()
+                .executor(Runnable::run)
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, Boolean>() {
+                    @Override
+                    public long expireAfterCreate(String tenantId, Boolean exists, long currentTime) {
+                        return TimeUnit.SECONDS.toNanos(exists ? knownTtl : unknownTtl);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String tenantId, Boolean exists, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(tenantId, exists, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String tenantId, Boolean exists, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build(tenantRepository::existsById);
+    }
+
     public Tenant findByTenantId(String tenantId) {
         return tenantRepository.findByTenantId(tenantId)
-                .orElseThrow(() -> new RuntimeException("No such tenant: " + tenantId));
+                .orElseThrow(() -> new UnknownTenantException("No such tenant: " + tenantId));
+    }
+
+    public void verifyTenant(String tenantId) {
+        if (!tenantExists.get(tenantId)) {
+            unknownTenantRequests.increment();
+            throw new UnknownTenantException("No such tenant: " + tenantId);
+        }
+    }
+
+    // the tenant registry changed, look the tenant up again on its next request
+    public void invalidate(String tenantId) {
+        tenantExists.invalidate(tenantId);
+    }
+
+    public void invalidateAll() {
+        tenantExists.invalidateAll();
     }
 }
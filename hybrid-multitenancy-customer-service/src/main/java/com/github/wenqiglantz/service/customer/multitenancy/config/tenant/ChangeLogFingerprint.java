@@ -0,0 +1,75 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 over a tenant changelog, every changelog it includes and the Liquibase contexts it runs with. A tenant
+ * whose recorded fingerprint equals the bundled changelog's has no changeSet left to apply.
+ */
+final class ChangeLogFingerprint {
+
+    private static final String LIQUIBASE_NAMESPACE = "http://www.liquibase.org/xml/ns/dbchangelog";
+
+    private ChangeLogFingerprint() {
+    }
+
+    static String of(ResourceLoader resourceLoader, String changeLog, String contexts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(contexts.getBytes(StandardCharsets.UTF_8));
+            add(digest, resourceLoader, resourceLoader.getResource(changeLog));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read changelog " + changeLog, e);
+        } catch (NoSuchAlgorithmException | ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Could not fingerprint changelog " + changeLog, e);
+        }
+    }
+
+    private static void add(MessageDigest digest, ResourceLoader resourceLoader, Resource changeLog)
+            throws IOException, ParserConfigurationException, SAXException {
+        byte[] content;
+        try (InputStream in = changeLog.getInputStream()) {
+            content = in.readAllBytes();
+        }
+        digest.update(content);
+        Document document = newDocumentBuilder().parse(new ByteArrayInputStream(content));
+        if (document.getElementsByTagNameNS(LIQUIBASE_NAMESPACE, "includeAll").getLength() > 0) {
+            throw new IllegalStateException("includeAll is not supported in " + changeLog.getDescription());
+        }
+        NodeList includes = document.getElementsByTagNameNS(LIQUIBASE_NAMESPACE, "include");
+        for (int i = 0; i < includes.getLength(); i++) {
+            Element include = (Element) includes.item(i);
+            String file = include.getAttribute("file");
+            add(digest, resourceLoader, Boolean.parseBoolean(include.getAttribute("relativeToChangelogFile"))
+                    ? changeLog.createRelative(file)
+                    : resourceLoader.getResource(ResourceLoader.CLASSPATH_URL_PREFIX + file));
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        return factory.newDocumentBuilder();
+    }
+}
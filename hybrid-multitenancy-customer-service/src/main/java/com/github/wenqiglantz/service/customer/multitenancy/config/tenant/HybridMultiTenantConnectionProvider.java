@@ -1,37 +1,55 @@
 package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
 
+import com.github.wenqiglantz.service.customer.data.exception.UnknownTenantException;
+import com.github.wenqiglantz.service.customer.multitenancy.IsolationType;
 import com.github.wenqiglantz.service.customer.multitenancy.Tenant;
 import com.github.wenqiglantz.service.customer.multitenancy.TenantContext;
 import com.github.wenqiglantz.service.customer.multitenancy.TenantRepository;
 import com.github.wenqiglantz.service.customer.util.EncryptionService;
 import com.github.wenqiglantz.service.customer.multitenancy.TenantConstants;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.pool.HikariPool.PoolInitializationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.util.Strings;
 import org.hibernate.engine.jdbc.connections.spi.AbstractDataSourceBasedMultiTenantConnectionProviderImpl;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
-import org.springframework.jdbc.datasource.ConnectionProxy;
-import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
 
 import javax.sql.DataSource;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -40,6 +58,14 @@ public class HybridMultiTenantConnectionProvider
         extends AbstractDataSourceBasedMultiTenantConnectionProviderImpl {
 
     private static final String TENANT_POOL_NAME_SUFFIX = "DataSource";
+    private static final String RLS_POOL_NAME_SUFFIX = "RlsDataSource";
+    private static final String READER_POOL_NAME_SUFFIX = "ReaderDataSource";
+    private static final String RLS_USER_SUFFIX = "user";
+    private static final String SHARED_POOL_NAME_PREFIX = "shared-";
+    private static final String SHARED_POOL_TENANT_TAG = "shared";
+    private static final String VALID_DB_SCHEMA_NAME_REGEXP = "[A-Za-z0-9_]+";
+    private static final String SESSION_STATEMENTS_METRIC = "tenant.connection.session.statements";
+    private static final Field DRIVER_PROPERTIES = driverPropertiesField();
 
     private final EncryptionService encryptionService;
 
@@ -51,6 +77,22 @@ public class HybridMultiTenantConnectionProvider
 
     private final TenantRepository masterTenantRepository;
 
+    @Qualifier("tenantHikariConfig")
+    private final HikariConfig tenantHikariConfig;
+
+    private final TenantConnectionBudget connectionBudget;
+
+    private final MeterRegistry meterRegistry;
+
+    private final TenantDataSourceReaper dataSourceReaper;
+
+    private final TenantPoolMetrics poolMetrics;
+
+    private final TenantCircuitBreaker circuitBreaker;
+
+    //absent when tenant liquibase is disabled
+    private final ObjectProvider<HybridMultiTenantSpringLiquibase> tenantLiquibase;
+
     @Value("${multitenancy.tenant.datasource.url-prefix}")
     private String urlPrefix;
 
@@ -60,31 +102,174 @@ public class HybridMultiTenantConnectionProvider
     @Value("${multitenancy.datasource-cache.expireAfterAccess:10}")
     private Integer expireAfterAccess;
 
+    @Value("${multitenancy.datasource-cache.refreshAfterWrite:5}")
+    private Integer refreshAfterWrite;
+
+    @Value("${multitenancy.datasource-cache.loaderThreads:4}")
+    private Integer loaderThreads;
+
+    @Value("${multitenancy.tenant.datasource.shared-pool.enabled:false}")
+    private boolean sharedPoolEnabled;
+
+    @Value("${multitenancy.tenant.datasource.shared-pool.username:#{null}}")
+    private String sharedPoolUsername;
+
+    @Value("${multitenancy.tenant.datasource.shared-pool.password:#{null}}")
+    private String sharedPoolPassword;
+
+    //reader checkouts fail fast and fall back to the primary, which is then used for retryAfter seconds
+    @Value("${multitenancy.tenant.datasource.reader.connectionTimeout:1000}")
+    private long readerConnectionTimeout;
+
+    @Value("${multitenancy.tenant.datasource.reader.retryAfter:30}")
+    private int readerRetryAfter;
+
     @Value("${encryption.secret}")
     private String secret;
 
     @Value("${encryption.salt}")
     private String salt;
 
-    private LoadingCache<String, HikariDataSource> tenantDataSources;
+    // Tenant settings of each physical connection's session, entries go away with the connections Hikari retires.
+    // Weak keys compare by identity and reads take no lock, unlike a synchronized WeakHashMap every checkout would
+    // contend on.
+    private final Map<Connection, SessionState> sessionStates = Caffeine.newBuilder()
+            .weakKeys()
+            .<Connection, SessionState>build()
+            .asMap();
 
+    private DistributionSummary sessionRoundTrips;
+
+    private Counter sessionStatementsExecuted;
+
+    private Counter sessionStatementsSkipped;
+
+    private ExecutorService loaderExecutor;
+
+    private AsyncLoadingCache<String, TenantDataSource> tenantDataSources;
+
+    private volatile boolean closing;
+
+    //suffix of dedicated pool names, a replacement pool must not share the name, meters and tags of the one draining
+    private final AtomicLong poolGeneration = new AtomicLong();
+
+    //one pool per database server and database, shared by all SCHEMA and SCHEMADISCRIMINATOR tenants living in it
+    private final Map<String, HikariDataSource> sharedDataSources = new ConcurrentHashMap<>();
+
+    // Tenant lookup, password decryption and pool bootstrap run once per tenant on the loader threads, concurrent
+    // requests for the same tenant wait on the same load, and requests for already loaded tenants never wait at all.
+    // Tenant metadata is reloaded in the background ahead of expiry, keeping the pool unless its settings changed.
     @PostConstruct
     private void createCache() {
-        tenantDataSources = CacheBuilder.newBuilder()
+        sessionRoundTrips = DistributionSummary.builder("tenant.connection.session.roundtrips")
+                .description("Round trips spent on tenant session settings per connection checkout")
+                .register(meterRegistry);
+        sessionStatementsExecuted = meterRegistry.counter(SESSION_STATEMENTS_METRIC, "outcome", "executed");
+        sessionStatementsSkipped = meterRegistry.counter(SESSION_STATEMENTS_METRIC, "outcome", "skipped");
+        loaderExecutor = Executors.newFixedThreadPool(loaderThreads, runnable -> {
+            //loader threads are started from request threads, do not let them inherit the request's TenantContext
+            Thread thread = new Thread(null, runnable, "tenant-datasource-loader", 0, false);
+            thread.setDaemon(true);
+            return thread;
+        });
+        tenantDataSources = Caffeine.newBuilder()
                 .maximumSize(maximumSize)
                 .expireAfterAccess(expireAfterAccess, TimeUnit.MINUTES)
-                .removalListener((RemovalListener<String, DataSource>) removal -> {
-                    HikariDataSource ds = (HikariDataSource) removal.getValue();
-                    ds.close(); // tear down properly
-                    log.info("Closed datasource: {}", ds.getPoolName());
-                })
-                .build(new CacheLoader<String, HikariDataSource>() {
-                    public HikariDataSource load(String key) {
-                        Tenant tenant = masterTenantRepository.findByTenantId(key)
-                                .orElseThrow(() -> new RuntimeException("No such tenant: " + key));
-                        return createAndConfigureDataSource(tenant);
+                .refreshAfterWrite(refreshAfterWrite, TimeUnit.MINUTES)
+                .executor(loaderExecutor)
+                .recordStats()
+                .removalListener((String key, TenantDataSource tenantDataSource, RemovalCause cause) ->
+                        closeDataSource(key, tenantDataSource))
+                .buildAsync(new CacheLoader<String, TenantDataSource>() {
+                    @Override
+                    public TenantDataSource load(String key) throws SQLException {
+                        return openTenantDataSource(findTenant(key));
+                    }
+
+                    // A lazy migration runs on the Liquibase workers, the loader thread is free for other tenants
+                    // meanwhile. Concurrent first requests for the tenant all wait on this load, so on one migration.
+                    @Override
+                    public CompletableFuture<? extends TenantDataSource> asyncLoad(String key, Executor executor)
+                            throws Exception {
+                        HybridMultiTenantSpringLiquibase liquibase = tenantLiquibase.getIfAvailable();
+                        if (liquibase == null || !liquibase.isLazy()) {
+                            return CacheLoader.super.asyncLoad(key, executor);
+                        }
+                        return CompletableFuture.supplyAsync(() -> findTenant(key), executor)
+                                .thenCompose(tenant -> liquibase.migrateOnFirstAccess(tenant).thenApply(done -> tenant))
+                                .thenApplyAsync(tenant -> {
+                                    try {
+                                        return openTenantDataSource(tenant);
+                                    } catch (SQLException e) {
+                                        throw new CompletionException(e);
+                                    }
+                                }, executor);
                     }
+
+                    @Override
+                    public TenantDataSource reload(String key, TenantDataSource oldValue) throws SQLException {
+                        Tenant tenant = masterTenantRepository.findByTenantId(key).orElse(null);
+                        if (tenant == null) {
+                            log.info("Tenant {} no longer exists, removing datasource", key);
+                            return null;
+                        }
+                        if (isSameConnectionSettings(oldValue.getTenant(), tenant)) {
+                            return oldValue.withTenant(tenant);
+                        }
+                        log.info("Connection settings changed for tenant {}, replacing datasource", key);
+                        return openTenantDataSource(tenant);
+                    }
+                });
+        CaffeineCacheMetrics.monitor(meterRegistry, tenantDataSources, "tenantDataSources");
+    }
+
+    private Tenant findTenant(String tenantId) {
+        return masterTenantRepository.findByTenantId(tenantId)
+                .orElseThrow(() -> new UnknownTenantException("No such tenant: " + tenantId));
+    }
+
+    private boolean isSameConnectionSettings(Tenant oldTenant, Tenant newTenant) {
+        return oldTenant.getIsolationType() == newTenant.getIsolationType()
+                && Objects.equals(oldTenant.getUrl(), newTenant.getUrl())
+                && Objects.equals(oldTenant.getReaderUrl(), newTenant.getReaderUrl())
+                && Objects.equals(oldTenant.getDbOrSchema(), newTenant.getDbOrSchema())
+                && Objects.equals(oldTenant.getUserName(), newTenant.getUserName())
+                && Objects.equals(oldTenant.getPassword(), newTenant.getPassword());
+    }
+
+    // Bootstrap a dedicated pool on the loader thread rather than on the first request borrowing from it
+    private TenantDataSource openTenantDataSource(Tenant tenant) throws SQLException {
+        TenantDataSource tenantDataSource = createTenantDataSource(tenant);
+        if (!tenantDataSource.isShared()) {
+            try (Connection ignored = tenantDataSource.getDataSource().getConnection()) {
+                log.debug("Started datasource: {}", tenantDataSource.getDataSource().getPoolName());
+            } catch (SQLException e) {
+                tenantDataSource.retire().forEach(ds -> {
+                    connectionBudget.unregister(ds);
+                    ds.close(); //nothing was lent out yet
+                    poolMetrics.unbind(ds);
                 });
+                throw e;
+            }
+        }
+        return tenantDataSource;
+    }
+
+    // Evicted and replaced pools may still have connections lent to in-flight transactions, the reaper closes them
+    // once those are returned
+    private void closeDataSource(String key, TenantDataSource tenantDataSource) {
+        if (tenantDataSource == null || tenantDataSource.isShared() || closing) {
+            return;
+        }
+        // a metadata refresh hands the same pool over to the new cache value
+        TenantDataSource current = tenantDataSources.synchronous().policy().getIfPresentQuietly(key);
+        if (current != null && current.getDataSource() == tenantDataSource.getDataSource()) {
+            return;
+        }
+        tenantDataSource.retire().forEach(ds -> {
+            log.info("Retiring datasource: {}", ds.getPoolName());
+            dataSourceReaper.retire(ds);
+        });
     }
 
     @Override
@@ -94,109 +279,281 @@ public class HybridMultiTenantConnectionProvider
 
     @Override
     protected DataSource selectDataSource(String tenantIdentifier) {
+        return selectTenantDataSource(tenantIdentifier).getDataSource();
+    }
+
+    private TenantDataSource selectTenantDataSource(String tenantIdentifier) {
         try {
-            return tenantDataSources.get(tenantIdentifier);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+            return tenantDataSources.get(tenantIdentifier).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
         }
     }
 
+    CompletableFuture<TenantDataSource> loadTenantDataSource(String tenantIdentifier) {
+        return tenantDataSources.get(tenantIdentifier);
+    }
+
+    // Reload tenant metadata now rather than on the next scheduled refresh, keeping the pool unless its settings
+    // changed. Tenants that are not cached are loaded on their next request anyway.
+    void refreshTenant(String tenantIdentifier) {
+        if (tenantDataSources.getIfPresent(tenantIdentifier) != null) {
+            tenantDataSources.synchronous().refresh(tenantIdentifier);
+        }
+    }
+
+    void refreshTenants() {
+        tenantDataSources.synchronous().refreshAll(tenantDataSources.synchronous().asMap().keySet());
+    }
+
+    List<String> getHottestTenants(int limit) {
+        return tenantDataSources.synchronous().policy().eviction()
+                .map(eviction -> List.copyOf(eviction.hottest(limit).keySet()))
+                .orElse(List.of());
+    }
+
+    @PreDestroy
+    private void closeDataSources() {
+        closing = true;
+        List<HikariDataSource> dataSources = new ArrayList<>(sharedDataSources.values());
+        tenantDataSources.synchronous().asMap().values().stream()
+                .filter(tenantDataSource -> !tenantDataSource.isShared())
+                .forEach(tenantDataSource -> dataSources.addAll(tenantDataSource.retire()));
+        dataSourceReaper.retireAll(dataSources);
+        loaderExecutor.shutdown();
+    }
+
     //tap into connection to customize for hierarchy support
     @Override
     public Connection getConnection(String tenantIdentifier) throws SQLException {
-        HikariDataSource dataSource = (HikariDataSource)selectDataSource(tenantIdentifier);
-        final Connection connection = dataSource.getConnection();
-        String userName = dataSource.getUsername();
-        //schema-per-tenant scenario, trying to check if it's hierarchical
-        if (dataSource.getJdbcUrl().contains("?currentSchema=")) {
-            setTenantId(connection, dataSource, userName);
+        //fail fast while the tenant's database is known to be down
+        circuitBreaker.checkClosed(tenantIdentifier);
+        TenantDataSource tenantDataSource;
+        boolean rowLevelSecurity = false;
+        HikariDataSource dataSource;
+        Connection connection = null;
+        try {
+            tenantDataSource = selectTenantDataSource(tenantIdentifier);
+            if (tenantDataSource.isRetired()) {
+                //evicted between lookup and checkout, its pools are draining
+                tenantDataSource = selectTenantDataSource(tenantIdentifier);
+            }
+            rowLevelSecurity = isRowLevelSecurity(tenantDataSource.getTenant(), TenantContext.getTenantId());
+            dataSource = tenantDataSource.getDataSource();
+            if (rowLevelSecurity && !tenantDataSource.isShared()) {
+                //need to use app db user, not table owner, as RLS policies are not applied for table owner by default
+                dataSource = tenantDataSource.getRlsDataSource(this::createRlsDataSource);
+            } else if (TenantTransactionManager.isReadOnlyBegin() && tenantDataSource.isReaderAvailable()) {
+                connection = borrowReaderConnection(tenantIdentifier, tenantDataSource);
+                if (connection != null) {
+                    dataSource = tenantDataSource.getReaderDataSource();
+                }
+            }
+            if (connection == null) {
+                connection = borrowConnection(dataSource);
+            }
+        } catch (UnknownTenantException e) {
+            throw e;
+        } catch (SQLException | RuntimeException e) {
+            //a busy but healthy tenant must not trip its own breaker
+            if (!isPoolExhausted(e)) {
+                boolean probeRls = rowLevelSecurity;
+                circuitBreaker.recordFailure(tenantIdentifier, e, () -> probeTenant(tenantIdentifier, probeRls));
+            }
+            throw e;
+        }
+        circuitBreaker.recordSuccess(tenantIdentifier);
+        int roundTrips;
+        try {
+            roundTrips = applySessionState(connection, getSessionState(tenantDataSource, rowLevelSecurity));
+        } catch (SQLException e) {
+            // the session is in an unknown state, do not let it back into the pool
+            dataSource.evictConnection(connection);
+            throw e;
+        }
+        return getTenancyAwareConnectionProxy(connection, roundTrips);
+    }
+
+    //null when the reader cannot hand out a connection, read-only transactions then use the primary for a while
+    private Connection borrowReaderConnection(String tenantIdentifier, TenantDataSource tenantDataSource) {
+        try {
+            return borrowConnection(tenantDataSource.getReaderDataSource());
+        } catch (SQLException | PoolInitializationException e) {
+            log.warn("Reader of tenant {} unavailable, using the primary for {} seconds: {}",
+                    tenantIdentifier, readerRetryAfter, e.getMessage());
+            tenantDataSource.markReaderUnavailable(TimeUnit.SECONDS.toNanos(readerRetryAfter));
+            return null;
+        }
+    }
+
+    // Circuit breaker probe, loads the tenant again if its datasource failed to load. Borrows from the RLS pool when
+    // a hierarchy request opened the breaker, the owner login working says nothing about the RLS app user's.
+    private Void probeTenant(String tenantIdentifier, boolean rowLevelSecurity) throws SQLException {
+        TenantDataSource tenantDataSource = selectTenantDataSource(tenantIdentifier);
+        HikariDataSource dataSource = rowLevelSecurity && !tenantDataSource.isShared()
+                ? tenantDataSource.getRlsDataSource(this::createRlsDataSource)
+                : tenantDataSource.getDataSource();
+        try (Connection ignored = dataSource.getConnection()) {
+            return null;
         }
-        return getTenancyAwareConnectionProxy(connection);
     }
 
-    // Every time the app asks the data source for a connection, set the PostgreSQL session
-    // variable to the tenant id to enforce data isolation.
-    private void setTenantId(Connection connection, HikariDataSource dataSource, String userName) throws SQLException {
+    // Hikari times a checkout out without a cause when all connections are in use, when the database cannot be reached
+    // the last connection failure is the cause. A checkout refused by a retired pool has no cause either.
+    private static boolean isPoolExhausted(Exception e) {
+        return e instanceof SQLTransientConnectionException && e.getCause() == null;
+    }
+
+    private Connection borrowConnection(HikariDataSource dataSource) throws SQLException {
+        //requests that selected the pool before it was retired must not open connections on it again
+        if (dataSourceReaper.isDraining(dataSource)) {
+            throw new SQLTransientConnectionException("Datasource " + dataSource.getPoolName() + " is retired");
+        }
+        long start = System.nanoTime();
+        Connection connection = dataSource.getConnection();
+        connectionBudget.recordAcquire(dataSource, System.nanoTime() - start);
+        return connection;
+    }
+
+    //row level security only exists in SCHEMADISCRIMINATOR schemas, and applies to valid hierarchy requests
+    private boolean isRowLevelSecurity(Tenant tenant, Map<String, String> tenancyMap) {
+        return tenant.getIsolationType() == IsolationType.SCHEMADISCRIMINATOR && isHierarchical(tenancyMap);
+    }
+
+    // Session settings the current request needs. A shared pool connection is not bound to any schema, so its role
+    // and search_path are switched to the tenant's, the RLS app user's role for hierarchy requests. Those also set
+    // app.tenantid, read by the row level security policies.
+    private SessionState getSessionState(TenantDataSource tenantDataSource, boolean rowLevelSecurity) {
+        Tenant tenant = tenantDataSource.getTenant();
+        String tenantId = rowLevelSecurity ? TenantContext.getTenantId().get(TenantConstants.TENANT) : null;
+        if (tenantDataSource.isShared()) {
+            String role = rowLevelSecurity ? tenant.getUserName() + RLS_USER_SUFFIX : tenant.getUserName();
+            return new SessionState(role, tenant.getDbOrSchema(), tenantId);
+        }
+        return tenantId == null ? SessionState.DEFAULT : new SessionState(null, null, tenantId);
+    }
+
+    // Every physical connection remembers the tenant settings last applied to its session, so a checkout only
+    // sends a statement when they differ from what the request needs. Settings are left in place on close, the
+    // next checkout resets whatever the next request does not need. Returns the round trips spent.
+    private int applySessionState(Connection connection, SessionState wanted) throws SQLException {
+        Connection physicalConnection = connection.unwrap(Connection.class);
+        SessionState current = sessionStates.getOrDefault(physicalConnection, SessionState.DEFAULT);
+        String changes = current.changesTo(wanted);
+        if (changes.isEmpty()) {
+            sessionStatementsSkipped.increment();
+            return 0;
+        }
+        sessionStates.remove(physicalConnection);
         try (Statement sql = connection.createStatement()) {
-            Map<String, String> tenancyMap = TenantContext.getTenantId();
-            //for valid hierarchy support, set row level security
-            if (Strings.isNotBlank(tenancyMap.get(TenantConstants.TENANT)) && TenantConstants.MINUS_ONE != tenancyMap.get(TenantConstants.TENANT)
-                && Strings.isNotBlank(tenancyMap.get(TenantConstants.PARENT_TENANT)) && TenantConstants.MINUS_ONE != tenancyMap.get(TenantConstants.PARENT_TENANT)) {
-                sql.execute("SET app.tenantid TO '" + tenancyMap.get(TenantConstants.TENANT) + "'");
-                //need to use app db user, not table owner, as RLS policies are not applied for table owner by default
-                if (!userName.endsWith("user")) {
-                    dataSource.setUsername(userName + "user"); //RLS user for hierarchical support
-                }
+            sql.execute(changes);
+        }
+        sessionStates.put(physicalConnection, wanted);
+        sessionStatementsExecuted.increment();
+        return 1;
+    }
+
+    private boolean isHierarchical(Map<String, String> tenancyMap) {
+        return tenancyMap != null
+                && Strings.isNotBlank(tenancyMap.get(TenantConstants.TENANT))
+                && !TenantConstants.MINUS_ONE.equals(tenancyMap.get(TenantConstants.TENANT))
+                && Strings.isNotBlank(tenancyMap.get(TenantConstants.PARENT_TENANT))
+                && !TenantConstants.MINUS_ONE.equals(tenancyMap.get(TenantConstants.PARENT_TENANT));
+    }
+
+    private TenantDataSource createTenantDataSource(Tenant tenant) {
+        if (sharedPoolEnabled && (tenant.getIsolationType() == IsolationType.SCHEMA
+                || tenant.getIsolationType() == IsolationType.SCHEMADISCRIMINATOR)) {
+            // role and schema names end up in SET statements, only accept what the admin service creates
+            if (!tenant.getUserName().matches(VALID_DB_SCHEMA_NAME_REGEXP)
+                    || !tenant.getDbOrSchema().matches(VALID_DB_SCHEMA_NAME_REGEXP)) {
+                throw new IllegalStateException("Invalid role or schema name for tenant: " + tenant.getTenantId());
+            }
+            String databaseUrl = tenant.getUrl().split("\\?")[0];
+            HikariDataSource ds = sharedDataSources.computeIfAbsent(databaseUrl, this::createSharedDataSource);
+            log.info("Tenant {} assigned to shared datasource: {}", tenant.getTenantId(), ds.getPoolName());
+            HikariDataSource readerDs = null;
+            if (Strings.isNotBlank(tenant.getReaderUrl())) {
+                readerDs = sharedDataSources.computeIfAbsent(tenant.getReaderUrl().split("\\?")[0],
+                        readerUrl -> configureReader(createSharedDataSource(readerUrl)));
             }
+            return new TenantDataSource(tenant, ds, true, readerDs);
         }
+        HikariDataSource readerDs = Strings.isBlank(tenant.getReaderUrl()) ? null
+                : configureReader(createAndConfigureDataSource(tenant, tenant.getReaderUrl(), tenant.getUserName(),
+                        tenant.getTenantId() + READER_POOL_NAME_SUFFIX));
+        return new TenantDataSource(tenant, createAndConfigureDataSource(tenant), false, readerDs);
+    }
+
+    //started on the first read-only transaction
+    private HikariDataSource configureReader(HikariDataSource ds) {
+        ds.setReadOnly(true);
+        ds.setConnectionTimeout(readerConnectionTimeout);
+        return ds;
+    }
+
+    private HikariDataSource createSharedDataSource(String databaseUrl) {
+        HikariDataSource ds = newTenantPool();
+        ds.setUsername(Strings.isNotBlank(sharedPoolUsername) ? sharedPoolUsername : dataSourceProperties.determineUsername());
+        ds.setPassword(Strings.isNotBlank(sharedPoolUsername) ? sharedPoolPassword : dataSourceProperties.determinePassword());
+        ds.setJdbcUrl(databaseUrl);
+        //e.g. shared-localhost-5432-multi_tenant_customerdbDataSource
+        ds.setPoolName(SHARED_POOL_NAME_PREFIX
+                + databaseUrl.substring(databaseUrl.indexOf("//") + 2).replaceAll("[:/]", "-")
+                + TENANT_POOL_NAME_SUFFIX);
+        poolMetrics.bind(ds, SHARED_POOL_TENANT_TAG, SHARED_POOL_TENANT_TAG);
+        connectionBudget.register(ds);
+        log.info("Configured shared datasource: {}", ds.getPoolName());
+        return ds;
     }
 
     private HikariDataSource createAndConfigureDataSource(Tenant tenant) {
+        return createAndConfigureDataSource(tenant, tenant.getUrl(), tenant.getUserName(),
+                tenant.getTenantId() + TENANT_POOL_NAME_SUFFIX);
+    }
+
+    //the admin service creates the RLS app user with the owner's password
+    private HikariDataSource createRlsDataSource(Tenant tenant) {
+        return createAndConfigureDataSource(tenant, tenant.getUrl(), tenant.getUserName() + RLS_USER_SUFFIX,
+                tenant.getTenantId() + RLS_POOL_NAME_SUFFIX);
+    }
+
+    private HikariDataSource createAndConfigureDataSource(Tenant tenant, String url, String userName, String poolName) {
         String decryptedPassword = encryptionService.decrypt(tenant.getPassword(), secret, salt);
-        HikariDataSource ds = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
-        ds.setUsername(tenant.getUserName());
+        HikariDataSource ds = newTenantPool();
+        ds.setUsername(userName);
         ds.setPassword(decryptedPassword);
-        ds.setJdbcUrl(tenant.getUrl());
-        ds.setPoolName(tenant.getTenantId() + TENANT_POOL_NAME_SUFFIX);
+        ds.setJdbcUrl(url);
+        //e.g. tenant1DataSource-3
+        ds.setPoolName(poolName + "-" + poolGeneration.incrementAndGet());
+        poolMetrics.bind(ds, tenant.getTenantId(), tenant.getIsolationType().name());
+        connectionBudget.register(ds);
 
         log.info("Configured datasource: {}", ds.getPoolName());
         log.info("ds url " + ds.getJdbcUrl() + ", user " + ds.getUsername() + ", isolation " + tenant.getIsolationType());
         return ds;
     }
 
-    // Connection Proxy that intercepts close() to reset the tenant_id
-    protected Connection getTenancyAwareConnectionProxy(Connection connection) {
-        return (Connection)
-                Proxy.newProxyInstance(
-                        ConnectionProxy.class.getClassLoader(),
-                        new Class[]{ConnectionProxy.class},
-                        new TenancyAwareInvocationHandler(connection));
+    // Sizing from multitenancy.tenant.datasource.hikari, the connection budget then adjusts maximumPoolSize.
+    // copyStateTo copies field by field, so each pool is given its own copy of the driver properties
+    private HikariDataSource newTenantPool() {
+        HikariDataSource ds = new HikariDataSource();
+        tenantHikariConfig.copyStateTo(ds);
+        Properties driverProperties = new Properties();
+        driverProperties.putAll(tenantHikariConfig.getDataSourceProperties());
+        ReflectionUtils.setField(DRIVER_PROPERTIES, ds, driverProperties);
+        ds.setDriverClassName(dataSourceProperties.determineDriverClassName());
+        return ds;
     }
 
-    // Connection Proxy invocation handler that intercepts close() to reset the tenant_id
-    private class TenancyAwareInvocationHandler implements InvocationHandler {
-        private final Connection target;
-
-        TenancyAwareInvocationHandler(Connection target) {
-            this.target = target;
-        }
-
-        @Nullable
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            switch (method.getName()) {
-                case "equals":
-                    return proxy == args[0];
-                case "hashCode":
-                    return System.identityHashCode(proxy);
-                case "toString":
-                    return "Tenant-aware proxy for target Connection [" + this.target.toString() + "]";
-                case "unwrap":
-                    if (((Class) args[0]).isInstance(proxy)) {
-                        return proxy;
-                    } else {
-                        return method.invoke(target, args);
-                    }
-                case "isWrapperFor":
-                    if (((Class) args[0]).isInstance(proxy)) {
-                        return true;
-                    } else {
-                        return method.invoke(target, args);
-                    }
-                case "getTargetConnection":
-                    return target;
-                default:
-                    if (method.getName().equals("close")) {
-                        clearTenantId(target);
-                    }
-                    return method.invoke(target, args);
-            }
-        }
+    private static Field driverPropertiesField() {
+        Field field = Objects.requireNonNull(ReflectionUtils.findField(HikariConfig.class, "dataSourceProperties"));
+        ReflectionUtils.makeAccessible(field);
+        return field;
     }
 
-    // When the connection is closed, clear tenant id from PostgreSQL session
-    private void clearTenantId(Connection connection) throws SQLException {
-        try (Statement sql = connection.createStatement()) {
-            sql.execute("RESET app.tenantid");
-        }
+    // Connection wrapper that records the session round trips of the checkout when it is closed
+    protected Connection getTenancyAwareConnectionProxy(Connection connection, int roundTrips) {
+        return new TenancyAwareConnection(connection, target -> sessionRoundTrips.record(roundTrips));
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,18 @@
 package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
 
+import com.github.wenqiglantz.service.customer.multitenancy.IsolationType;
 import com.github.wenqiglantz.service.customer.multitenancy.Tenant;
 import com.github.wenqiglantz.service.customer.multitenancy.TenantRepository;
 import com.github.wenqiglantz.service.customer.util.EncryptionService;
+import liquibase.Scope;
+import liquibase.ThreadLocalScopeManager;
 import liquibase.exception.LiquibaseException;
 import liquibase.integration.spring.SpringLiquibase;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -22,6 +27,17 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
  * This class provides Liquibase support for multitenancy based on a hybrid collection of DataSources.
@@ -29,10 +45,12 @@ import java.util.Collection;
 @Getter
 @Setter
 @Slf4j
-public class HybridMultiTenantSpringLiquibase implements InitializingBean, ResourceLoaderAware {
+public class HybridMultiTenantSpringLiquibase implements InitializingBean, DisposableBean, ResourceLoaderAware {
 
     private static final String LIQUIBASE_CONTEXT_NON_HIERARCHY = "main";
     private static final String LIQUIBASE_CONTEXT_HIERARCHY = "main,hierarchy"; //comma separated means both main and hierarchy contexts
+    private static final int SLOWEST_TENANTS_LOGGED = 5;
+    private static final String MODE_LAZY = "lazy";
 
     @Autowired
     private EncryptionService encryptionService;
@@ -60,16 +78,164 @@ public class HybridMultiTenantSpringLiquibase implements InitializingBean, Resou
     private boolean dropFirst = false;
     private boolean shouldRun = true;
 
+    @Value("${multitenancy.tenant.liquibase.parallelism:4}")
+    private int parallelism;
+
+    //fail the startup when any tenant fails to migrate, otherwise only log it
+    @Value("${multitenancy.tenant.liquibase.failOnError:true}")
+    private boolean failOnError;
+
+    //eager migrates every tenant on startup, lazy migrates a tenant when its datasource is first built
+    @Value("${multitenancy.tenant.liquibase.mode:eager}")
+    private String mode;
+
+    private static boolean threadLocalScopes;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<IsolationType, String> changeLogFingerprints = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ExecutorService lazyMigrationExecutor;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         log.info("Hybrid multitenancy enabled");
+        if (isLazy()) {
+            log.info("Tenants are migrated on first access, {} at a time", parallelism);
+            //tenants are migrated on several threads at once
+            useThreadLocalScopes();
+            lazyMigrationExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+                Thread thread = new Thread(null, runnable, "tenant-liquibase", 0, false);
+                thread.setDaemon(true);
+                return thread;
+            });
+            return;
+        }
         this.runOnAllTenants(masterTenantRepository.findAll());
     }
 
+    @Override
+    public void destroy() {
+        if (lazyMigrationExecutor != null) {
+            lazyMigrationExecutor.shutdownNow();
+        }
+    }
+
+    boolean isLazy() {
+        return MODE_LAZY.equalsIgnoreCase(mode);
+    }
+
+    // Lazy mode, callers make sure a tenant is only migrated by one thread. Outdated tenants are migrated on their own
+    // pool of parallelism workers rather than on the caller's thread, so datasource loads of up to date tenants
+    // never wait behind slow migrations.
+    CompletableFuture<Void> migrateOnFirstAccess(Tenant tenant) {
+        if (isUpToDate(tenant)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            Migration migration = migrateIfOutdated(tenant);
+            if (migration.failure() != null) {
+                throw new IllegalStateException("Liquibase failed for tenant " + tenant.getTenantId(),
+                        migration.failure());
+            }
+        }, lazyMigrationExecutor);
+    }
+
+    // The master registry records the tenant as migrated with the bundled changelog and contexts by any node
+    private boolean isUpToDate(Tenant tenant) {
+        return tenant.getIsolationType() == IsolationType.DISCRIMINATOR || !isShouldRun()
+                || getChangeLogFingerprint(tenant).equals(tenant.getChangelogFingerprint());
+    }
+
+    // Skips Liquibase, its lock, changelog parsing and checksum comparison, for up to date tenants, and records
+    // successful migrations.
+    private Migration migrateIfOutdated(Tenant tenant) {
+        if (isUpToDate(tenant)) {
+            log.debug("Tenant {} is up to date", tenant.getTenantId());
+            return Migration.UP_TO_DATE;
+        }
+        String fingerprint = getChangeLogFingerprint(tenant);
+        Migration migration = migrate(tenant);
+        if (migration.failure() == null) {
+            masterTenantRepository.updateChangelogFingerprint(tenant.getTenantId(), fingerprint);
+            tenant.setChangelogFingerprint(fingerprint);
+        }
+        return migration;
+    }
+
+    // The bundled changelogs do not change at runtime, each fingerprint is computed once
+    private String getChangeLogFingerprint(Tenant tenant) {
+        return switch (tenant.getIsolationType()) {
+            case DATABASE -> changeLogFingerprints.computeIfAbsent(IsolationType.DATABASE, type ->
+                    ChangeLogFingerprint.of(resourceLoader, liquibaseProperties.getChangeLog(),
+                            LIQUIBASE_CONTEXT_NON_HIERARCHY));
+            case SCHEMA, DISCRIMINATOR -> changeLogFingerprints.computeIfAbsent(IsolationType.SCHEMA, type ->
+                    ChangeLogFingerprint.of(resourceLoader, getChangeLog(), LIQUIBASE_CONTEXT_NON_HIERARCHY));
+            case SCHEMADISCRIMINATOR -> changeLogFingerprints.computeIfAbsent(IsolationType.SCHEMADISCRIMINATOR,
+                    type -> ChangeLogFingerprint.of(resourceLoader, getChangeLog(), LIQUIBASE_CONTEXT_HIERARCHY));
+        };
+    }
+
+    // Tenants are migrated on a pool of parallelism workers. Every database and every schema has its own
+    // databasechangeloglock, tenants sharing one are migrated one after another by the same worker.
     protected void runOnAllTenants(Collection<Tenant> tenants) throws LiquibaseException {
-        for(Tenant tenant : tenants) {
-            String decryptedPassword = encryptionService.decrypt(tenant.getPassword(), secret, salt);
-            log.info("Initializing Liquibase for tenant " + tenant.getTenantId() + " and password " + decryptedPassword);
+        Map<String, List<Tenant>> targets = tenants.stream()
+                .filter(tenant -> tenant.getIsolationType() != IsolationType.DISCRIMINATOR)
+                .collect(Collectors.groupingBy(this::getChangeLogLockTarget, LinkedHashMap::new, Collectors.toList()));
+        int workers = Math.max(1, Math.min(parallelism, targets.size()));
+        log.info("Running Liquibase for {} tenants on {} workers", tenants.size(), workers);
+        if (workers > 1) {
+            useThreadLocalScopes();
+        }
+        long start = System.nanoTime();
+        Map<String, Migration> migrations = new ConcurrentHashMap<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(null, runnable, "tenant-liquibase", 0, false);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture.allOf(targets.values().stream()
+                    .map(target -> CompletableFuture.runAsync(() -> target.forEach(tenant -> {
+                        //stop starting new migrations after the first failure when that fails the startup anyway
+                        if (!(failOnError && failed.get())) {
+                            Migration migration = migrateIfOutdated(tenant);
+                            migrations.put(tenant.getTenantId(), migration);
+                            if (migration.failure() != null) {
+                                failed.set(true);
+                            }
+                        }
+                    }), executor))
+                    .toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<String> failures = migrations.entrySet().stream()
+                .filter(migration -> migration.getValue().failure() != null)
+                .map(migration -> migration.getKey() + " (" + migration.getValue().failure().getMessage() + ")")
+                .sorted()
+                .toList();
+        long upToDate = migrations.values().stream().filter(Migration::upToDate).count();
+        log.info("Liquibase ran for {} of {} tenants in {} ms, {} up to date, {} failed, slowest: {}",
+                migrations.size() - upToDate - failures.size(), targets.values().stream().mapToInt(List::size).sum(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), upToDate, failures.size(),
+                getSlowest(migrations));
+        if (!failures.isEmpty()) {
+            log.error("Liquibase failed for tenants: {}", failures);
+            if (failOnError) {
+                throw new LiquibaseException("Liquibase failed for tenants: " + failures);
+            }
+        }
+    }
+
+    private Migration migrate(Tenant tenant) {
+        long start = System.nanoTime();
+        log.info("Initializing Liquibase for tenant " + tenant.getTenantId());
+        String decryptedPassword = encryptionService.decrypt(tenant.getPassword(), secret, salt);
+        try {
             switch (tenant.getIsolationType()) {
                 case DATABASE:
                     try (Connection connection = DriverManager.getConnection(urlPrefix + tenant.getDbOrSchema(),
@@ -77,42 +243,61 @@ public class HybridMultiTenantSpringLiquibase implements InitializingBean, Resou
                         DataSource tenantDataSource = new SingleConnectionDataSource(connection, false);
                         SpringLiquibase liquibase = this.getSpringLiquibase(tenantDataSource);
                         liquibase.afterPropertiesSet();
-                    } catch (SQLException | LiquibaseException e) {
-                        log.error("Failed to run Liquibase for tenant " + tenant.getTenantId(), e);
                     }
                     break;
 
                 case SCHEMA:
-                    try (Connection connection = DriverManager.getConnection(tenant.getUrl(), tenant.getDbOrSchema(),
-                            decryptedPassword)) {
-                        DataSource tenantDataSource = new SingleConnectionDataSource(connection, false);
-                        SpringLiquibase liquibase = this.getSpringLiquibase(
-                                tenantDataSource, tenant.getDbOrSchema(), false);
-                        liquibase.afterPropertiesSet();
-                    } catch (SQLException | LiquibaseException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException(e.getMessage());
-                    }
-                    break;
-
                 case SCHEMADISCRIMINATOR:
-                    boolean hierarchySupport = true;
+                    boolean hierarchySupport = tenant.getIsolationType() == IsolationType.SCHEMADISCRIMINATOR;
                     try (Connection connection = DriverManager.getConnection(tenant.getUrl(), tenant.getDbOrSchema(),
                             decryptedPassword)) {
                         DataSource tenantDataSource = new SingleConnectionDataSource(connection, false);
                         SpringLiquibase liquibase = this.getSpringLiquibase(
                                 tenantDataSource, tenant.getDbOrSchema(), hierarchySupport);
                         liquibase.afterPropertiesSet();
-                    } catch (SQLException | LiquibaseException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException(e.getMessage());
                     }
                     break;
             }
-            log.info("Liquibase ran for tenant " + tenant.getTenantId());
+        } catch (SQLException | LiquibaseException | RuntimeException e) {
+            log.error("Failed to run Liquibase for tenant " + tenant.getTenantId(), e);
+            return new Migration(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), false, e);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Liquibase ran for tenant " + tenant.getTenantId() + " in " + millis + " ms");
+        return new Migration(millis, false, null);
+    }
+
+    //the database, or the schema within it, holding the tenant's databasechangeloglock
+    private String getChangeLogLockTarget(Tenant tenant) {
+        return tenant.getIsolationType() == IsolationType.DATABASE
+                ? urlPrefix + tenant.getDbOrSchema()
+                : tenant.getUrl().split("\\?")[0] + "/" + tenant.getDbOrSchema();
+    }
+
+    private String getSlowest(Map<String, Migration> migrations) {
+        return migrations.entrySet().stream()
+                .filter(migration -> !migration.getValue().upToDate())
+                .sorted(Map.Entry.<String, Migration>comparingByValue(
+                        Comparator.comparingLong(Migration::millis)).reversed())
+                .limit(SLOWEST_TENANTS_LOGGED)
+                .map(migration -> migration.getKey() + " " + migration.getValue().millis() + " ms")
+                .toList()
+                .toString();
+    }
+
+    // Liquibase keeps its scope in a single static field by default, which concurrent updates would overwrite
+    private static synchronized void useThreadLocalScopes() {
+        if (!threadLocalScopes) {
+            Scope.setScopeManager(new ThreadLocalScopeManager());
+            threadLocalScopes = true;
         }
     }
 
+    private record Migration(long millis, boolean upToDate, Exception failure) {
+
+        static final Migration UP_TO_DATE = new Migration(0, true, null);
+    }
+
     protected SpringLiquibase getSpringLiquibase(DataSource dataSource, String schema, boolean hierarchySupport) {
         SpringLiquibase liquibase = new SpringLiquibase();
         liquibase.setResourceLoader(getResourceLoader());
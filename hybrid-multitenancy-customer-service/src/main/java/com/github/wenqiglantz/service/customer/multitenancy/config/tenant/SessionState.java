@@ -0,0 +1,30 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tenant settings of a PostgreSQL session: the role set with SET ROLE, the search_path and the app.tenantid
+ * variable row level security policies read. A null value means the session default.
+ */
+record SessionState(String role, String searchPath, String tenantId) {
+
+    static final SessionState DEFAULT = new SessionState(null, null, null);
+
+    // statements turning this session state into the wanted one, empty when nothing changes
+    String changesTo(SessionState wanted) {
+        List<String> statements = new ArrayList<>(3);
+        if (!Objects.equals(role, wanted.role)) {
+            statements.add(wanted.role == null ? "RESET ROLE" : "SET ROLE " + wanted.role);
+        }
+        if (!Objects.equals(searchPath, wanted.searchPath)) {
+            statements.add(wanted.searchPath == null ? "RESET search_path" : "SET search_path TO " + wanted.searchPath);
+        }
+        if (!Objects.equals(tenantId, wanted.tenantId)) {
+            statements.add(wanted.tenantId == null ? "RESET app.tenantid"
+                    : "SET app.tenantid TO '" + wanted.tenantId.replace("'", "''") + "'");
+        }
+        return String.join("; ", statements);
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.github.wenqiglantz.service.customer.data.exception.TenantUnavailableException;
+import com.github.wenqiglantz.service.customer.data.exception.UnknownTenantException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-tenant circuit breakers around tenant database access. After failureThreshold consecutive failures to get a
+ * connection, requests for the tenant are rejected right away instead of each holding a request thread for the
+ * connection timeout. An open breaker is probed in the background every probeInterval milliseconds and closes on
+ * the first probe that gets a connection.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TenantCircuitBreaker {
+
+    private static final String OPEN_METRIC = "tenant.circuit.breaker.open";
+    private static final String REJECTED_METRIC = "tenant.circuit.breaker.rejected";
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${multitenancy.tenant.circuit-breaker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${multitenancy.tenant.circuit-breaker.failureThreshold:5}")
+    private int failureThreshold;
+
+    @Value("${multitenancy.tenant.circuit-breaker.probeInterval:5000}")
+    private long probeInterval;
+
+    //only tenants with failures since their last successful checkout have an entry
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(null, runnable, "tenant-circuit-breaker-probe", 0, false);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    void checkClosed(String tenantId) {
+        Breaker breaker = breakers.isEmpty() ? null : breakers.get(tenantId);
+        if (breaker != null && breaker.open.get()) {
+            meterRegistry.counter(REJECTED_METRIC, "tenant", tenantId).increment();
+            throw new TenantUnavailableException("Database of tenant " + tenantId + " is unavailable, retry later");
+        }
+    }
+
+    void recordSuccess(String tenantId) {
+        Breaker breaker = breakers.isEmpty() ? null : breakers.get(tenantId);
+        if (breaker != null && !breaker.open.get()) {
+            breakers.remove(tenantId, breaker);
+        }
+    }
+
+    // The probe is called on the probe thread while the breaker is open and should throw as long as the tenant's
+    // database cannot be reached
+    void recordFailure(String tenantId, Throwable failure, Callable<?> probe) {
+        if (!enabled) {
+            return;
+        }
+        Breaker breaker = breakers.computeIfAbsent(tenantId, id -> new Breaker());
+        int failures = breaker.failures.incrementAndGet();
+        if (failures >= failureThreshold && breaker.open.compareAndSet(false, true)) {
+            log.warn("Opening circuit breaker of tenant {} after {} consecutive connection failures: {}",
+                    tenantId, failures, failure.toString());
+            breaker.gauge = Gauge.builder(OPEN_METRIC, breaker, b -> b.open.get() ? 1 : 0)
+                    .description("Whether requests for the tenant are rejected because its database is unavailable")
+                    .tag("tenant", tenantId)
+                    .register(meterRegistry);
+            scheduleProbe(tenantId, breaker, probe);
+        }
+    }
+
+    private void scheduleProbe(String tenantId, Breaker breaker, Callable<?> probe) {
+        try {
+            prober.schedule(() -> probe(tenantId, breaker, probe), probeInterval, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //shutting down
+        }
+    }
+
+    private void probe(String tenantId, Breaker breaker, Callable<?> probe) {
+        try {
+            probe.call();
+        } catch (UnknownTenantException e) {
+            //deleted, requests for it are rejected before they get here, stop probing
+            close(tenantId, breaker);
+            log.info("Dropped circuit breaker of tenant {}, the tenant no longer exists", tenantId);
+            return;
+        } catch (Exception e) {
+            log.debug("Circuit breaker probe of tenant {} failed: {}", tenantId, e.toString());
+            scheduleProbe(tenantId, breaker, probe);
+            return;
+        }
+        close(tenantId, breaker);
+        log.info("Closed circuit breaker of tenant {}", tenantId);
+    }
+
+    private void close(String tenantId, Breaker breaker) {
+        breakers.remove(tenantId, breaker);
+        breaker.open.set(false);
+        meterRegistry.remove(breaker.gauge);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        prober.shutdownNow();
+    }
+
+    private static class Breaker {
+
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private final AtomicBoolean open = new AtomicBoolean();
+
+        private Gauge gauge;
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide limit on the connections all tenant pools may open together. Pools start small and are periodically
+ * resized: pools whose borrowers waited grow, idle pools shrink towards their active connections, and when the
+ * wanted sizes exceed the budget every pool keeps its minimum and the rest is shared in proportion to demand.
+ * The limit is soft: every pool keeps minimumPoolSize so no tenant is locked out, and once there are more pools than
+ * maximumConnections / minimumPoolSize the allocation exceeds the budget. The overshoot is exported as a gauge.
+ */
+@Slf4j
+@Component
+public class TenantConnectionBudget {
+
+    private final Map<HikariDataSource, PoolUsage> pools = new ConcurrentHashMap<>();
+
+    private final int maximumPoolSize;
+
+    @Value("${multitenancy.tenant.datasource.budget.maximumConnections:500}")
+    private int maximumConnections;
+
+    @Value("${multitenancy.tenant.datasource.budget.minimumPoolSize:2}")
+    private int minimumPoolSize;
+
+    @Value("${multitenancy.tenant.datasource.budget.waitThreshold:10}")
+    private long waitThreshold;
+
+    public TenantConnectionBudget(@Qualifier("tenantHikariConfig") HikariConfig tenantHikariConfig,
+                                  MeterRegistry meterRegistry) {
+        this.maximumPoolSize = tenantHikariConfig.getMaximumPoolSize();
+        Gauge.builder("tenant.connection.budget.allocated", this, TenantConnectionBudget::getAllocated)
+                .description("Sum of the maximum sizes of all tenant pools")
+                .register(meterRegistry);
+        Gauge.builder("tenant.connection.budget.overshoot", this,
+                        budget -> Math.max(0, budget.getAllocated() - budget.maximumConnections))
+                .description("Connections the tenant pools may open beyond the budget to keep their minimum size")
+                .register(meterRegistry);
+    }
+
+    synchronized void register(HikariDataSource dataSource) {
+        int allocated = getAllocated();
+        int size = Math.max(minimumPoolSize, Math.min(maximumPoolSize, maximumConnections - allocated));
+        resize(dataSource, size);
+        pools.put(dataSource, new PoolUsage());
+        log.debug("Registered {} with maximumPoolSize {}", dataSource.getPoolName(), size);
+    }
+
+    private int getAllocated() {
+        return pools.keySet().stream().mapToInt(HikariDataSource::getMaximumPoolSize).sum();
+    }
+
+    void unregister(HikariDataSource dataSource) {
+        pools.remove(dataSource);
+    }
+
+    void recordAcquire(HikariDataSource dataSource, long nanos) {
+        PoolUsage usage = pools.get(dataSource);
+        if (usage != null) {
+            usage.waitNanos.add(nanos);
+            usage.acquisitions.increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${multitenancy.tenant.datasource.budget.rebalanceInterval:5000}")
+    public synchronized void rebalance() {
+        if (pools.isEmpty()) {
+            return;
+        }
+        Map<HikariDataSource, Integer> wanted = new LinkedHashMap<>();
+        pools.forEach((dataSource, usage) -> wanted.put(dataSource, wantedSize(dataSource, usage)));
+
+        int total = wanted.values().stream().mapToInt(Integer::intValue).sum();
+        if (total > maximumConnections && total > minimumPoolSize * wanted.size()) {
+            int floor = minimumPoolSize * wanted.size();
+            int spare = Math.max(0, maximumConnections - floor);
+            int demand = total - floor;
+            if (spare == 0) {
+                log.warn("Connection budget of {} cannot give {} tenant pools their minimum size",
+                        maximumConnections, wanted.size());
+            }
+            wanted.replaceAll((dataSource, size) ->
+                    minimumPoolSize + (int) ((long) (size - minimumPoolSize) * spare / demand));
+        }
+        wanted.forEach((dataSource, size) -> {
+            if (size != dataSource.getMaximumPoolSize()) {
+                log.debug("Resizing {} from {} to {}", dataSource.getPoolName(), dataSource.getMaximumPoolSize(), size);
+                resize(dataSource, size);
+            }
+        });
+    }
+
+    private int wantedSize(HikariDataSource dataSource, PoolUsage usage) {
+        int size = dataSource.getMaximumPoolSize();
+        long acquisitions = usage.acquisitions.sumThenReset();
+        long waitNanos = usage.waitNanos.sumThenReset();
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        int active = pool == null ? 0 : pool.getActiveConnections();
+        int waiting = pool == null ? 0 : pool.getThreadsAwaitingConnection();
+        long averageWait = acquisitions == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos / acquisitions);
+
+        int wanted = size;
+        if (waiting > 0 || averageWait >= waitThreshold) {
+            //busy, grow by half or by the number of waiting borrowers, whichever is larger
+            wanted = size + Math.max(waiting, (size + 1) / 2);
+        } else if (active < size / 2) {
+            //mostly idle, shrink halfway towards the connections in use
+            wanted = active + (size - active) / 2;
+        }
+        return Math.max(minimumPoolSize, Math.min(maximumPoolSize, wanted));
+    }
+
+    private void resize(HikariDataSource dataSource, int size) {
+        if (dataSource.getMinimumIdle() > size) {
+            dataSource.getHikariConfigMXBean().setMinimumIdle(size);
+        }
+        dataSource.getHikariConfigMXBean().setMaximumPoolSize(size);
+    }
+
+    private static class PoolUsage {
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder acquisitions = new LongAdder();
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.github.wenqiglantz.service.customer.multitenancy.Tenant;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Connection pool assigned to a tenant. A tenant either owns a dedicated pool, or borrows from a pool
+ * shared by all schema tenants living in the same database, in which case the role and search_path
+ * are switched on every checkout. A dedicated SCHEMADISCRIMINATOR tenant additionally gets a pool
+ * logging in as its row level security app user, opened on the first hierarchical request. Tenants
+ * with a reader url have a reader pool serving read-only transactions.
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+class TenantDataSource {
+
+    private final Tenant tenant;
+
+    private final HikariDataSource dataSource;
+
+    private final boolean shared;
+
+    //null when the tenant has no read replica
+    private final HikariDataSource readerDataSource;
+
+    //shared with the copies made on metadata refresh, so the pool is only ever opened once
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<HikariDataSource> rlsDataSource;
+
+    //set once the cache let go of this entry and its pools went to the reaper
+    private volatile boolean retired;
+
+    //after a failed reader checkout, read-only transactions use the primary until then
+    @Getter(AccessLevel.NONE)
+    private volatile long readerRetryAt = System.nanoTime();
+
+    TenantDataSource(Tenant tenant, HikariDataSource dataSource, boolean shared, HikariDataSource readerDataSource) {
+        this(tenant, dataSource, shared, readerDataSource, new AtomicReference<>());
+    }
+
+    TenantDataSource withTenant(Tenant tenant) {
+        return new TenantDataSource(tenant, dataSource, shared, readerDataSource, rlsDataSource);
+    }
+
+    boolean isReaderAvailable() {
+        return readerDataSource != null && System.nanoTime() - readerRetryAt >= 0;
+    }
+
+    void markReaderUnavailable(long retryAfterNanos) {
+        readerRetryAt = System.nanoTime() + retryAfterNanos;
+    }
+
+    HikariDataSource getRlsDataSource(Function<Tenant, HikariDataSource> factory) {
+        HikariDataSource ds = rlsDataSource.get();
+        if (ds == null) {
+            synchronized (rlsDataSource) {
+                ds = rlsDataSource.get();
+                if (ds == null) {
+                    if (retired) {
+                        throw new IllegalStateException("Datasource of tenant " + tenant.getTenantId() + " is retired");
+                    }
+                    ds = factory.apply(tenant);
+                    rlsDataSource.set(ds);
+                }
+            }
+        }
+        return ds;
+    }
+
+    // Marks the entry retired and returns the pools to drain, no RLS pool is opened for it afterwards
+    List<HikariDataSource> retire() {
+        synchronized (rlsDataSource) {
+            retired = true;
+            List<HikariDataSource> dataSources = new ArrayList<>(List.of(dataSource));
+            if (rlsDataSource.get() != null) {
+                dataSources.add(rlsDataSource.get());
+            }
+            if (readerDataSource != null && !shared) {
+                dataSources.add(readerDataSource);
+            }
+            return dataSources;
+        }
+    }
+}
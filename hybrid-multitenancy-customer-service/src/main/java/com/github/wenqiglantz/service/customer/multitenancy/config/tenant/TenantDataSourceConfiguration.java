@@ -0,0 +1,39 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+@Configuration
+public class TenantDataSourceConfiguration {
+
+    // Pool settings every tenant pool starts from, connection settings come from the tenant. Bound once, binding it
+    // for every new pool costs more than opening the pool
+    @Bean
+    @ConfigurationProperties("multitenancy.tenant.datasource.hikari")
+    public HikariConfig tenantHikariConfig(
+            @Qualifier("tenantPoolHousekeeper") ScheduledExecutorService tenantPoolHousekeeper) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setScheduledExecutor(tenantPoolHousekeeper);
+        return hikariConfig;
+    }
+
+    // Hikari starts a housekeeping thread per pool unless given an executor, share a few among all tenant pools
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService tenantPoolHousekeeper(
+            @Value("${multitenancy.tenant.datasource.housekeepingThreads:2}") int housekeepingThreads) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(housekeepingThreads, runnable -> {
+            Thread thread = new Thread(runnable, "tenant-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.github.wenqiglantz.service.customer.multitenancy.Tenant;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens the connection pools of the hottest tenants in parallel during startup. Application runners complete
+ * before the readiness state changes to ACCEPTING_TRAFFIC, so the first requests after a deploy find their pools
+ * already holding prewarm.minimumIdle connections.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "multitenancy.tenant.prewarm.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class TenantDataSourcePrewarmer implements ApplicationRunner {
+
+    private final HybridMultiTenantConnectionProvider connectionProvider;
+
+    private final TenantRepository masterTenantRepository;
+
+    @Value("${multitenancy.tenant.prewarm.count:20}")
+    private int count;
+
+    @Value("${multitenancy.tenant.prewarm.parallelism:8}")
+    private int parallelism;
+
+    @Value("${multitenancy.tenant.prewarm.minimumIdle:1}")
+    private int minimumIdle;
+
+    @Value("${multitenancy.tenant.prewarm.timeout:30}")
+    private int timeout;
+
+    @Value("${multitenancy.tenant.prewarm.hot-tenants-file:#{null}}")
+    private String hotTenantsFile;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> tenantIds = getHotTenants();
+        log.info("Prewarming datasources of {} tenants", tenantIds.size());
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Map<String, CompletableFuture<Long>> warmups = new LinkedHashMap<>();
+        try {
+            tenantIds.forEach(tenantId ->
+                    warmups.put(tenantId, CompletableFuture.supplyAsync(() -> warm(tenantId), executor)));
+            CompletableFuture.allOf(warmups.values().toArray(new CompletableFuture[0]))
+                    .get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Prewarming did not complete within {} seconds", timeout);
+        } catch (Exception e) {
+            // individual failures are reported below
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int failed = 0;
+        for (Map.Entry<String, CompletableFuture<Long>> warmup : warmups.entrySet()) {
+            CompletableFuture<Long> future = warmup.getValue();
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                log.info("Prewarmed datasource for tenant {} in {} ms", warmup.getKey(), future.join());
+            } else {
+                failed++;
+                log.warn("Failed to prewarm datasource for tenant {}: {}", warmup.getKey(), describeFailure(future));
+            }
+        }
+        log.info("Prewarmed {} of {} tenant datasources in {} ms", warmups.size() - failed, warmups.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Raises the pool's minimumIdle until it holds the connections, then restores it: idle connections above the
+    // pool's own minimumIdle are retired after idleTimeout like any others, so neither pools shared with other tenants
+    // nor the connection budget keep them for good
+    private long warm(String tenantId) {
+        long start = System.nanoTime();
+        HikariDataSource dataSource = connectionProvider.loadTenantDataSource(tenantId).join().getDataSource();
+        int poolMinimumIdle = dataSource.getMinimumIdle();
+        int target = Math.max(poolMinimumIdle, Math.min(minimumIdle, dataSource.getMaximumPoolSize()));
+        try {
+            try (Connection ignored = dataSource.getConnection()) {
+                if (target > poolMinimumIdle) {
+                    dataSource.getHikariConfigMXBean().setMinimumIdle(target);
+                }
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+            // Hikari fills up to minimumIdle in the background, wait for it so the pool is ready when traffic arrives
+            long deadline = start + TimeUnit.SECONDS.toNanos(timeout);
+            while (dataSource.getHikariPoolMXBean().getIdleConnections() < target && System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(e);
+                }
+            }
+        } finally {
+            if (target > poolMinimumIdle) {
+                dataSource.getHikariConfigMXBean().setMinimumIdle(poolMinimumIdle);
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private String describeFailure(CompletableFuture<Long> future) {
+        if (!future.isDone()) {
+            return "timed out";
+        }
+        try {
+            future.join();
+            return "unknown";
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            return String.valueOf(cause);
+        }
+    }
+
+    private List<String> getHotTenants() {
+        if (Strings.isNotBlank(hotTenantsFile) && Files.isReadable(Path.of(hotTenantsFile))) {
+            try {
+                List<String> tenantIds = Files.readAllLines(Path.of(hotTenantsFile)).stream()
+                        .filter(Strings::isNotBlank)
+                        .map(String::trim)
+                        .limit(count)
+                        .toList();
+                if (!tenantIds.isEmpty()) {
+                    return tenantIds;
+                }
+            } catch (IOException e) {
+                log.warn("Could not read hot tenants from " + hotTenantsFile, e);
+            }
+        }
+        //the master registry records no usage, without the file the tenants are not the hottest but the first by id
+        return masterTenantRepository.findAll(PageRequest.of(0, count, Sort.by("tenantId"))).stream()
+                .map(Tenant::getTenantId)
+                .toList();
+    }
+
+    // persist the tenants this node served most, so the next deploy prewarms them
+    @PreDestroy
+    private void saveHotTenants() {
+        if (Strings.isBlank(hotTenantsFile)) {
+            return;
+        }
+        List<String> tenantIds = connectionProvider.getHottestTenants(count);
+        if (tenantIds.isEmpty()) {
+            return;
+        }
+        try {
+            Files.write(Path.of(hotTenantsFile), tenantIds);
+            log.info("Saved {} hot tenants to {}", tenantIds.size(), hotTenantsFile);
+        } catch (IOException e) {
+            log.warn("Could not save hot tenants to " + hotTenantsFile, e);
+        }
+    }
+}
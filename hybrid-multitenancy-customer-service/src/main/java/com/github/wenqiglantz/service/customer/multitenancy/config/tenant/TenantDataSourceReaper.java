@@ -0,0 +1,123 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes retired tenant pools off the request path. A retired pool refuses new checkouts and stops handing out idle
+ * connections, the ones still lent to in-flight transactions are closed as they come back, and the pool itself is
+ * closed once nothing is active anymore or the drain timeout has passed.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TenantDataSourceReaper {
+
+    private final TenantConnectionBudget connectionBudget;
+
+    private final TenantPoolMetrics poolMetrics;
+
+    @Value("${multitenancy.tenant.datasource.reaper.drainTimeout:30}")
+    private int drainTimeout;
+
+    @Value("${multitenancy.tenant.datasource.reaper.checkInterval:1000}")
+    private long checkInterval;
+
+    private final Set<HikariDataSource> draining = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(null, runnable, "tenant-datasource-reaper", 0, false);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    void retire(HikariDataSource dataSource) {
+        if (!startDraining(dataSource)) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeout);
+        try {
+            scheduler.execute(() -> closeWhenDrained(dataSource, deadline));
+        } catch (RejectedExecutionException e) {
+            close(dataSource); //shutting down
+        }
+    }
+
+    boolean isDraining(HikariDataSource dataSource) {
+        return !draining.isEmpty() && draining.contains(dataSource);
+    }
+
+    private boolean startDraining(HikariDataSource dataSource) {
+        if (!draining.add(dataSource)) {
+            return false;
+        }
+        connectionBudget.unregister(dataSource);
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool != null) {
+            pool.softEvictConnections(); //idle connections close now, lent ones when they are returned
+        }
+        return true;
+    }
+
+    private void closeWhenDrained(HikariDataSource dataSource, long deadline) {
+        int active = getActiveConnections(dataSource);
+        if (active > 0 && System.nanoTime() < deadline && !scheduler.isShutdown()) {
+            scheduler.schedule(() -> closeWhenDrained(dataSource, deadline), checkInterval, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (active > 0) {
+            log.warn("Closing datasource {} with {} active connections after {} seconds",
+                    dataSource.getPoolName(), active, drainTimeout);
+        }
+        close(dataSource);
+    }
+
+    // Shutdown drains every remaining pool at once instead of paying each pool's close one after another
+    void retireAll(Collection<HikariDataSource> dataSources) {
+        dataSources.forEach(this::startDraining);
+        drainAll();
+    }
+
+    @PreDestroy
+    private void drainAll() {
+        scheduler.shutdownNow();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeout);
+        while (draining.stream().anyMatch(dataSource -> getActiveConnections(dataSource) > 0)
+                && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(Math.min(checkInterval, 100));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List.copyOf(draining).parallelStream().forEach(this::close);
+    }
+
+    private int getActiveConnections(HikariDataSource dataSource) {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null || dataSource.isClosed() ? 0 : pool.getActiveConnections();
+    }
+
+    private void close(HikariDataSource dataSource) {
+        if (draining.remove(dataSource)) {
+            dataSource.close(); // tear down properly
+            poolMetrics.unbind(dataSource);
+            log.info("Closed datasource: {}", dataSource.getPoolName());
+        }
+    }
+}
@@ -94,7 +94,7 @@ public class TenantHibernateConfig {
     @Bean("tenantTransactionManager")
     public JpaTransactionManager tenantTransactionManager(
             @Qualifier("tenantEntityManagerFactory") EntityManagerFactory emf) {
-        JpaTransactionManager tenantTransactionManager = new JpaTransactionManager();
+        JpaTransactionManager tenantTransactionManager = new TenantTransactionManager();
         tenantTransactionManager.setEntityManagerFactory(emf);
         return tenantTransactionManager;
     }
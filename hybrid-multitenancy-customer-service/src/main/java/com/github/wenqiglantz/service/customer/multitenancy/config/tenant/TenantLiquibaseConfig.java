@@ -22,10 +22,11 @@ public class TenantLiquibaseConfig {
     @Value("${multitenancy.tenant.liquibase.changeLog}")
     private String tenantLiquibaseChangeLog;
 
+    //the only tenant liquibase bean, every tenant is migrated once per startup
     @Bean
     @DependsOn("liquibase")
     public HybridMultiTenantSpringLiquibase hybridMultiTenantSpringLiquibase(
-            @Qualifier("masterLiquibaseProperties")
+            @Qualifier("tenantLiquibaseProperties")
             LiquibaseProperties liquibaseProperties) {
         HybridMultiTenantSpringLiquibase liquibase = new HybridMultiTenantSpringLiquibase();
         liquibase.setChangeLog(tenantLiquibaseChangeLog);
@@ -39,9 +40,4 @@ public class TenantLiquibaseConfig {
     public LiquibaseProperties tenantLiquibaseProperties() {
         return new LiquibaseProperties();
     }
-
-    @Bean
-    public HybridMultiTenantSpringLiquibase tenantLiquibase() {
-        return new HybridMultiTenantSpringLiquibase();
-    }
 }
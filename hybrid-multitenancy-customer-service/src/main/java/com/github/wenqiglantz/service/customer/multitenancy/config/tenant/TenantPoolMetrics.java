@@ -0,0 +1,53 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes the hikaricp.* meters of every tenant pool: active, idle and pending connections, acquire and usage
+ * time, timeouts. Hikari only tags them with the pool name, so the tenant and isolation type are added here.
+ */
+@Component
+public class TenantPoolMetrics {
+
+    private static final String HIKARI_METRIC_PREFIX = "hikaricp.";
+    private static final String POOL_TAG = "pool";
+
+    private final Map<String, Tags> poolTags = new ConcurrentHashMap<>();
+
+    private final MicrometerMetricsTrackerFactory metricsTrackerFactory;
+
+    public TenantPoolMetrics(MeterRegistry meterRegistry) {
+        this.metricsTrackerFactory = new MicrometerMetricsTrackerFactory(meterRegistry);
+        meterRegistry.config().meterFilter(new MeterFilter() {
+            @Override
+            public Meter.Id map(Meter.Id id) {
+                String pool = id.getTag(POOL_TAG);
+                if (pool == null || !id.getName().startsWith(HIKARI_METRIC_PREFIX)) {
+                    return id;
+                }
+                Tags tags = poolTags.get(pool);
+                return tags == null ? id : id.withTags(tags);
+            }
+        });
+    }
+
+    // must run before the pool starts, the meters are registered when it does. Pool names are unique per instance.
+    void bind(HikariDataSource dataSource, String tenantId, String isolationType) {
+        poolTags.put(dataSource.getPoolName(), Tags.of("tenant", tenantId, "isolation", isolationType));
+        dataSource.setMetricsTrackerFactory(metricsTrackerFactory);
+    }
+
+    // must run after the pool is closed, its meters are removed when it is
+    void unbind(HikariDataSource dataSource) {
+        poolTags.remove(dataSource.getPoolName());
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import com.github.wenqiglantz.service.customer.multitenancy.TenantService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Listens on the master database for the tenant ids the admin service publishes with pg_notify whenever it changes
+ * the tenant registry, and reloads just those tenants. Notifications sent while the listener was disconnected are
+ * lost, so every cached tenant is reloaded after a reconnect.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "multitenancy.tenant.registry.notify.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class TenantRegistryListener {
+
+    private static final String VALID_CHANNEL_NAME_REGEXP = "[A-Za-z0-9_]+";
+
+    private final HybridMultiTenantConnectionProvider connectionProvider;
+
+    private final TenantService tenantService;
+
+    @Qualifier("masterDataSourceProperties")
+    private final DataSourceProperties dataSourceProperties;
+
+    @Value("${multitenancy.tenant.registry.notify.channel:tenant_registry}")
+    private String channel;
+
+    @Value("${multitenancy.tenant.registry.notify.pollTimeout:5000}")
+    private int pollTimeout;
+
+    @Value("${multitenancy.tenant.registry.notify.retryInterval:5000}")
+    private long retryInterval;
+
+    private volatile boolean running;
+
+    private volatile Connection connection;
+
+    private Thread listenerThread;
+
+    @PostConstruct
+    private void start() {
+        if (!channel.matches(VALID_CHANNEL_NAME_REGEXP)) {
+            throw new IllegalStateException("Invalid tenant registry channel: " + channel);
+        }
+        running = true;
+        listenerThread = new Thread(null, this::listen, "tenant-registry-listener", 0, false);
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @PreDestroy
+    private void stop() {
+        running = false;
+        listenerThread.interrupt();
+        Connection current = connection;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (SQLException e) {
+                // closing only to wake up the listener thread
+            }
+        }
+    }
+
+    private void listen() {
+        //set while changes may have been published without this node listening, including a failed first connect
+        boolean missedChanges = false;
+        while (running) {
+            try (Connection listenerConnection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                connection = listenerConnection;
+                try (Statement sql = listenerConnection.createStatement()) {
+                    sql.execute("LISTEN " + channel);
+                }
+                log.info("Listening for tenant registry changes on channel {}", channel);
+                if (missedChanges) {
+                    tenantService.invalidateAll();
+                    connectionProvider.refreshTenants();
+                    missedChanges = false;
+                }
+                PGConnection pgConnection = listenerConnection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeout);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            try {
+                                onTenantChanged(notification.getParameter());
+                            } catch (RuntimeException e) {
+                                log.error("Failed to reload tenant {} after a registry change",
+                                        notification.getParameter(), e);
+                            }
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                missedChanges = true;
+                if (running) {
+                    log.warn("Tenant registry listener disconnected, retrying in {} ms: {}", retryInterval, e.getMessage());
+                    sleep();
+                }
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    private void onTenantChanged(String tenantId) {
+        log.info("Tenant registry changed for tenant {}", tenantId);
+        tenantService.invalidate(tenantId);
+        connectionProvider.refreshTenant(tenantId);
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(retryInterval);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.wenqiglantz.service.customer.multitenancy.config.tenant;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * Lets the connection provider see whether the transaction being started is read-only. The connection is acquired
+ * while the transaction begins, before Spring publishes the read-only flag of the new transaction, so the flag is
+ * held in a thread local for the duration of doBegin.
+ */
+public class TenantTransactionManager extends JpaTransactionManager {
+
+    private static final ThreadLocal<Boolean> READ_ONLY_BEGIN = new ThreadLocal<>();
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        READ_ONLY_BEGIN.set(definition.isReadOnly());
+        try {
+            super.doBegin(transaction, definition);
+        } finally {
+            READ_ONLY_BEGIN.remove();
+        }
+    }
+
+    static boolean isReadOnlyBegin() {
+        return Boolean.TRUE.equals(READ_ONLY_BEGIN.get());
+    }
+}
@@ -1,10 +1,73 @@
 package com.github.wenqiglantz.service.customer.persistence.repository;
 
+import com.github.wenqiglantz.service.customer.data.CustomerVO;
 import com.github.wenqiglantz.service.customer.persistence.entity.Customer;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 public interface CustomerRepository extends CrudRepository<Customer, String> {
+
+    //rows the postgres driver fetches per round trip when streaming, it reads the whole result otherwise
+    String STREAM_FETCH_SIZE = "500";
+
     Optional<Customer> findByCustomerId(String customerId);
+
+    boolean existsByCustomerId(String customerId);
+
+    @Query(value = "SELECT * FROM CUSTOMER ORDER BY INSERTED_AT, ID LIMIT :limit", nativeQuery = true)
+    List<Customer> findFirstPage(@Param("limit") int limit);
+
+    //the row comparison is a range scan of IDX_CUSTOMER_INSERTED_AT_ID
+    @Query(value = "SELECT * FROM CUSTOMER WHERE (INSERTED_AT, ID) > (:insertedAt, :id) ORDER BY INSERTED_AT, ID "
+            + "LIMIT :limit", nativeQuery = true)
+    List<Customer> findPageAfter(@Param("insertedAt") LocalDateTime insertedAt, @Param("id") String id,
+                                 @Param("limit") int limit);
+
+    //forward-only and not attached to the persistence context, must be consumed and closed in a transaction
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query("SELECT new com.github.wenqiglantz.service.customer.data.CustomerVO(c.customerId, c.firstName, c.lastName, "
+            + "c.version) FROM Customer c ORDER BY c.createdOn, c.id")
+    Stream<CustomerVO> streamAll();
+
+    // The statements below change a customer in one round trip without loading it, so no entity callbacks run and
+    // they set the version and timestamps themselves. They must run in a transaction.
+
+    @Modifying
+    @Query("UPDATE Customer c SET c.firstName = :firstName, c.lastName = :lastName, c.version = c.version + 1, "
+            + "c.modifiedOn = :modifiedOn WHERE c.customerId = :customerId AND c.version = :version")
+    int updateByCustomerIdAndVersion(@Param("customerId") String customerId, @Param("version") long version,
+                                     @Param("firstName") String firstName, @Param("lastName") String lastName,
+                                     @Param("modifiedOn") LocalDateTime modifiedOn);
+
+    @Modifying
+    @Query("DELETE FROM Customer c WHERE c.customerId = :customerId")
+    int deleteByCustomerId(@Param("customerId") String customerId);
+
+    @Modifying
+    @Query("DELETE FROM Customer c WHERE c.customerId = :customerId AND c.version = :version")
+    int deleteByCustomerIdAndVersion(@Param("customerId") String customerId, @Param("version") long version);
+
+    // Returns the version of the customer, 0 when it was inserted, or null when the customer id is taken by another
+    // tenant sharing the table. The tenant condition is checked before row level security, which would fail the
+    // statement.
+    @Query(value = "INSERT INTO CUSTOMER (ID, VERSION, CUSTOMER_ID, FIRST_NAME, LAST_NAME, INSERTED_AT, UPDATED_AT, "
+            + "TENANTID) VALUES (:id, 0, :customerId, :firstName, :lastName, :now, :now, :tenantId) "
+            + "ON CONFLICT (CUSTOMER_ID) DO UPDATE SET FIRST_NAME = EXCLUDED.FIRST_NAME, "
+            + "LAST_NAME = EXCLUDED.LAST_NAME, VERSION = COALESCE(CUSTOMER.VERSION, 0) + 1, "
+            + "UPDATED_AT = EXCLUDED.UPDATED_AT WHERE CUSTOMER.TENANTID = EXCLUDED.TENANTID "
+            + "RETURNING VERSION", nativeQuery = true)
+    Long upsert(@Param("id") String id, @Param("customerId") String customerId, @Param("firstName") String firstName,
+                @Param("lastName") String lastName, @Param("now") LocalDateTime now,
+                @Param("tenantId") String tenantId);
 }
@@ -1,7 +1,16 @@
 package com.github.wenqiglantz.service.customer.restcontroller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.wenqiglantz.service.customer.data.CustomerBulkResult;
+import com.github.wenqiglantz.service.customer.data.CustomerPage;
 import com.github.wenqiglantz.service.customer.data.CustomerVO;
 import com.github.wenqiglantz.service.customer.services.CustomerService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
@@ -13,9 +22,12 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.util.List;
 
@@ -27,9 +39,13 @@ import java.util.List;
 public class CustomerController {
 
     private static final String JSON = MediaType.APPLICATION_JSON_VALUE;
+    private static final String NDJSON = MediaType.APPLICATION_NDJSON_VALUE;
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
 
     private final CustomerService customerService;
 
+    private final ObjectMapper objectMapper;
+
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity createCustomer(@RequestBody CustomerVO customerVO, UriComponentsBuilder uriBuilder)
         throws Exception {
@@ -44,12 +60,50 @@ public class CustomerController {
                         .customerId(newCustomerVO.getCustomerId())
                         .firstName(newCustomerVO.getFirstName())
                         .lastName(newCustomerVO.getLastName())
+                        .version(newCustomerVO.getVersion())
                         .build());
     }
 
+    // A JSON array or newline delimited JSON of customers, read and saved in chunks while the request streams in.
+    // Customers that could not be saved are listed in the result, the others are saved.
+    @PostMapping(value = "/bulk", consumes = {JSON, NDJSON})
+    public ResponseEntity<CustomerBulkResult> createCustomers(HttpServletRequest request) throws IOException {
+        try (MappingIterator<CustomerVO> customerVOS = objectMapper.readerFor(CustomerVO.class)
+                .readValues(request.getInputStream())) {
+            return ResponseEntity.ok(customerService.saveCustomers(customerVOS));
+        }
+    }
+
+    // A page of at most limit customers, X-Next-Cursor carries the cursor of the next page unless this is the last
     @GetMapping(produces = JSON)
-    public ResponseEntity<List<CustomerVO>> getCustomers() {
-        return ResponseEntity.ok(customerService.getCustomers());
+    public ResponseEntity<List<CustomerVO>> getCustomers(@RequestParam(required = false) String cursor,
+                                                         @RequestParam(required = false) Integer limit) {
+        CustomerPage page = customerService.getCustomers(cursor, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getCustomers());
+    }
+
+    // All customers as newline delimited JSON, written while they are read. Rows go out whenever the response buffer
+    // fills up rather than one flush per row.
+    @GetMapping(produces = NDJSON)
+    public void streamCustomers(HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        ObjectWriter writer = objectMapper.writerFor(CustomerVO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(null);
+            customerService.streamCustomers(customerVO -> {
+                try {
+                    writer.writeValue(generator, customerVO);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
     }
 
     @GetMapping(value = "/{customerId}")
@@ -57,16 +111,24 @@ public class CustomerController {
         return ResponseEntity.ok(customerService.getCustomer(customerId));
     }
 
+    // Creates or replaces the customer, or with a version in the body replaces only that version of it
     @PutMapping(value = "/{customerId}", consumes = JSON)
-    public ResponseEntity updateCustomer(@PathVariable String customerId, @RequestBody CustomerVO customerVO)
-        throws Exception {
-        customerService.updateCustomer(customerId, customerVO);
+    public ResponseEntity updateCustomer(@PathVariable String customerId, @RequestBody CustomerVO customerVO,
+                                         UriComponentsBuilder uriBuilder) throws Exception {
+        if (customerService.updateCustomer(customerId, customerVO)) {
+            URI location = uriBuilder
+                    .path("/customers/{customerId}")
+                    .buildAndExpand(customerId)
+                    .toUri();
+            return ResponseEntity.created(location).build();
+        }
         return ResponseEntity.noContent().build();
     }
 
     @DeleteMapping(value = "/{customerId}")
-    public ResponseEntity deleteCustomer(@PathVariable String customerId) throws Exception {
-        customerService.deleteCustomer(customerId);
+    public ResponseEntity deleteCustomer(@PathVariable String customerId,
+                                         @RequestParam(required = false) Long version) throws Exception {
+        customerService.deleteCustomer(customerId, version);
         return ResponseEntity.noContent().build();
     }
 }
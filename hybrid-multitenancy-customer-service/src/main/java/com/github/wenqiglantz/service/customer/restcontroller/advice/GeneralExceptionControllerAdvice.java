@@ -2,7 +2,11 @@ package com.github.wenqiglantz.service.customer.restcontroller.advice;
 
 import com.github.wenqiglantz.service.customer.data.error.ErrorResponse;
 import com.github.wenqiglantz.service.customer.data.error.ErrorType;
+import com.github.wenqiglantz.service.customer.data.exception.InvalidRequestException;
 import com.github.wenqiglantz.service.customer.data.exception.NotFoundException;
+import com.github.wenqiglantz.service.customer.data.exception.TenantUnavailableException;
+import com.github.wenqiglantz.service.customer.data.exception.UnknownTenantException;
+import com.github.wenqiglantz.service.customer.data.exception.VersionConflictException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpStatus;
@@ -29,6 +33,46 @@ public class GeneralExceptionControllerAdvice {
         return new ResponseEntity<>(errorResponse, HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(VersionConflictException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorResponse> handleVersionConflictException(VersionConflictException exception) {
+        ErrorResponse errorResponse = ErrorResponse.builder()
+                .errorCode(HttpStatus.CONFLICT.toString())
+                .errorKey(ErrorType.DATA_VERSION_CONFLICT.name())
+                .errorMessage(exception.getMessage()).build();
+        return new ResponseEntity<>(errorResponse, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorResponse> handleInvalidRequestException(InvalidRequestException exception) {
+        ErrorResponse errorResponse = ErrorResponse.builder()
+                .errorCode(HttpStatus.BAD_REQUEST.toString())
+                .errorKey(ErrorType.INVALID_REQUEST_DATA.name())
+                .errorMessage(exception.getMessage()).build();
+        return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(UnknownTenantException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorResponse> handleUnknownTenantException(UnknownTenantException exception) {
+        ErrorResponse errorResponse = ErrorResponse.builder()
+                .errorCode(HttpStatus.BAD_REQUEST.toString())
+                .errorKey(ErrorType.INVALID_REQUEST_DATA.name())
+                .errorMessage(exception.getMessage()).build();
+        return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(TenantUnavailableException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorResponse> handleTenantUnavailableException(TenantUnavailableException exception) {
+        ErrorResponse errorResponse = ErrorResponse.builder()
+                .errorCode(HttpStatus.SERVICE_UNAVAILABLE.toString())
+                .errorKey(ErrorType.UPSTREAM_SERVICE_ERROR.name())
+                .errorMessage(exception.getMessage()).build();
+        return new ResponseEntity<>(errorResponse, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(HttpRequestMethodNotSupportedException.class)
     @ResponseBody
     public ResponseEntity<ErrorResponse> handleHttpRequestMethodNotSupportedException(
@@ -46,6 +90,15 @@ public class GeneralExceptionControllerAdvice {
     @ExceptionHandler(RuntimeException.class)
     @ResponseBody
     public ResponseEntity<ErrorResponse> handleRuntimeException(RuntimeException exception) {
+        //tenant errors raised on connection checkout surface wrapped by the persistence layer
+        for (Throwable cause = exception.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnknownTenantException unknownTenantException) {
+                return handleUnknownTenantException(unknownTenantException);
+            }
+            if (cause instanceof TenantUnavailableException tenantUnavailableException) {
+                return handleTenantUnavailableException(tenantUnavailableException);
+            }
+        }
         String messageId = UUID.randomUUID().toString();
         String errorDescription = "Unexpected system exception ID: " + messageId;
 
@@ -1,17 +1,37 @@
 package com.github.wenqiglantz.service.customer.services;
 
+import com.github.wenqiglantz.service.customer.data.CustomerBulkResult;
+import com.github.wenqiglantz.service.customer.data.CustomerPage;
 import com.github.wenqiglantz.service.customer.data.CustomerVO;
+import com.github.wenqiglantz.service.customer.data.exception.InvalidRequestException;
 import com.github.wenqiglantz.service.customer.data.exception.NotFoundException;
+import com.github.wenqiglantz.service.customer.data.exception.VersionConflictException;
+import com.github.wenqiglantz.service.customer.multitenancy.TenantContext;
 import com.github.wenqiglantz.service.customer.persistence.entity.Customer;
 import com.github.wenqiglantz.service.customer.persistence.repository.CustomerRepository;
+import com.github.wenqiglantz.service.customer.util.Utils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import static com.github.wenqiglantz.service.customer.multitenancy.TenantConstants.TENANT;
 import static java.util.stream.Collectors.toList;
 
 @Slf4j
@@ -20,18 +40,91 @@ import static java.util.stream.Collectors.toList;
 public class CustomerService {
 
     private final CustomerRepository customerRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${customer.page.defaultLimit:100}")
+    private int defaultPageSize;
+
+    @Value("${customer.page.maxLimit:1000}")
+    private int maxPageSize;
+
+    @Value("${customer.bulk.chunkSize:500}")
+    private int bulkChunkSize;
     
     public CustomerVO saveCustomer(CustomerVO customerVO) throws Exception {
         customerVO.setCustomerId(Strings.isBlank(customerVO.getCustomerId()) ? UUID.randomUUID().toString() : customerVO.getCustomerId());
-        Customer customer = Customer.builder()
-                .customerId(customerVO.getCustomerId())
-                .firstName(customerVO.getFirstName())
-                .lastName(customerVO.getLastName())
-                .build();
-        customerRepository.save(customer);
+        Customer customer = customerRepository.save(toCustomer(customerVO));
+        customerVO.setVersion(customer.getVersion());
         return customerVO;
     }
 
+    // Saves the customers read from the iterator in transactions of bulkChunkSize customers, each flushed as JDBC
+    // batches of inserts. A chunk that fails is retried one customer per transaction to tell which customers failed,
+    // a customer the iterator fails to read ends the request.
+    public CustomerBulkResult saveCustomers(Iterator<CustomerVO> customerVOS) {
+        List<CustomerBulkResult.Failure> failures = new ArrayList<>();
+        List<BulkRecord> chunk = new ArrayList<>(bulkChunkSize);
+        int received = 0;
+        int created = 0;
+        while (true) {
+            CustomerVO customerVO;
+            try {
+                if (!customerVOS.hasNext()) {
+                    break;
+                }
+                customerVO = customerVOS.next();
+            } catch (RuntimeException e) {
+                failures.add(new CustomerBulkResult.Failure(received++, null, "Unreadable record: " + e.getMessage()));
+                break;
+            }
+            int index = received++;
+            if (customerVO == null) {
+                failures.add(new CustomerBulkResult.Failure(index, null, "Empty record"));
+                continue;
+            }
+            if (Strings.isBlank(customerVO.getCustomerId())) {
+                customerVO.setCustomerId(UUID.randomUUID().toString());
+            }
+            chunk.add(new BulkRecord(index, customerVO));
+            if (chunk.size() == bulkChunkSize) {
+                created += saveChunk(chunk, failures);
+                chunk.clear();
+            }
+        }
+        created += saveChunk(chunk, failures);
+        return new CustomerBulkResult(received, created, failures);
+    }
+
+    // Returns the number of customers saved. Only database errors are failures of a customer, others such as an
+    // unavailable tenant fail the whole request.
+    private int saveChunk(List<BulkRecord> chunk, List<CustomerBulkResult.Failure> failures) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> customerRepository.saveAll(chunk.stream()
+                    .map(record -> toCustomer(record.customerVO()))
+                    .collect(toList())));
+            return chunk.size();
+        } catch (DataAccessException e) {
+            log.debug("Chunk of {} customers failed, saving them one by one: {}", chunk.size(), e.toString());
+        }
+        int created = 0;
+        for (BulkRecord record : chunk) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        customerRepository.save(toCustomer(record.customerVO())));
+                created++;
+            } catch (DataAccessException e) {
+                failures.add(new CustomerBulkResult.Failure(record.index(), record.customerVO().getCustomerId(),
+                        NestedExceptionUtils.getMostSpecificCause(e).getMessage()));
+            }
+        }
+        return created;
+    }
+
+    @Transactional(readOnly = true)
     public CustomerVO getCustomer(String customerId) {
         Customer customer =
                 customerRepository.findByCustomerId(customerId).orElseThrow(() ->
@@ -41,37 +134,125 @@ public class CustomerService {
                 .customerId(customerId)
                 .firstName(customer.getFirstName())
                 .lastName(customer.getLastName())
+                .version(customer.getVersion())
                 .build();
         return customerVO;
     }
 
-    public List<CustomerVO> getCustomers() {
-        List<Customer> customers = (List<Customer>) customerRepository.findAll();
+    // One page of customers in insertion order, starting after the cursor of the previous page. Seeking by
+    // (INSERTED_AT, ID) reads only the rows of the page however deep it is.
+    @Transactional(readOnly = true)
+    public CustomerPage getCustomers(String cursor, Integer limit) {
+        int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+        if (pageSize < 1) {
+            throw new InvalidRequestException("limit must be positive: " + limit);
+        }
+        //one extra row tells whether there is a next page
+        List<Customer> customers;
+        if (cursor == null) {
+            customers = customerRepository.findFirstPage(pageSize + 1);
+        } else {
+            Cursor position = Cursor.decode(cursor);
+            customers = customerRepository.findPageAfter(position.insertedAt(), position.id(), pageSize + 1);
+        }
+        String nextCursor = null;
+        if (customers.size() > pageSize) {
+            customers = customers.subList(0, pageSize);
+            Customer last = customers.get(pageSize - 1);
+            nextCursor = new Cursor(last.getCreatedOn(), last.getId()).encode();
+        }
 
         List<CustomerVO> customerVOS = customers.stream()
                 .map(customer -> CustomerVO.builder()
                         .customerId(customer.getCustomerId())
                         .firstName(customer.getFirstName())
                         .lastName(customer.getLastName())
+                        .version(customer.getVersion())
                         .build())
                 .collect(toList());
 
-        return customerVOS;
+        return new CustomerPage(customerVOS, nextCursor);
     }
-    
-    public void updateCustomer(String customerId, CustomerVO customerVO) throws Exception {
-        Customer customer =
-                customerRepository.findByCustomerId(customerId).orElseThrow(() ->
-                        new NotFoundException("Could not find customer with customerId: " + customerId));
-        customer.setFirstName(customerVO.getFirstName());
-        customer.setLastName(customerVO.getLastName());
-        customerRepository.save(customer);
+
+    // Hands every customer to the consumer as it is read, holding neither the entities nor the whole result in
+    // memory. The consumer runs inside the read-only transaction.
+    @Transactional(readOnly = true)
+    public void streamCustomers(Consumer<CustomerVO> consumer) {
+        try (Stream<CustomerVO> customers = customerRepository.streamAll()) {
+            customers.forEach(consumer);
+        }
     }
 
-    public void deleteCustomer(String customerId) throws Exception {
-        Customer customer =
-                customerRepository.findByCustomerId(customerId).orElseThrow(() ->
-                        new NotFoundException("Could not find customer with customerId: " + customerId));
-        customerRepository.delete(customer);
+    // Replaces the customer in one statement. Without a version the customer is inserted when it does not exist and
+    // true is returned, with the version read by the client only that version is updated.
+    @Transactional
+    public boolean updateCustomer(String customerId, CustomerVO customerVO) throws Exception {
+        LocalDateTime now = Utils.currentUtc();
+        if (customerVO.getVersion() == null) {
+            Long version = customerRepository.upsert(UUID.randomUUID().toString(), customerId,
+                    customerVO.getFirstName(), customerVO.getLastName(), now, TenantContext.getTenantId().get(TENANT));
+            if (version == null) {
+                throw new NotFoundException("Could not find customer with customerId: " + customerId);
+            }
+            return version == 0;
+        }
+        int updated = customerRepository.updateByCustomerIdAndVersion(customerId, customerVO.getVersion(),
+                customerVO.getFirstName(), customerVO.getLastName(), now);
+        if (updated == 0) {
+            throw notFoundOrConflict(customerId, customerVO.getVersion());
+        }
+        return false;
+    }
+
+    // Deletes the customer in one statement, only when it still has the given version unless that is null
+    @Transactional
+    public void deleteCustomer(String customerId, Long version) throws Exception {
+        int deleted = version == null
+                ? customerRepository.deleteByCustomerId(customerId)
+                : customerRepository.deleteByCustomerIdAndVersion(customerId, version);
+        if (deleted == 0) {
+            throw notFoundOrConflict(customerId, version);
+        }
+    }
+
+    //only a statement that changed nothing pays for the extra query
+    private RuntimeException notFoundOrConflict(String customerId, Long version) {
+        if (version != null && customerRepository.existsByCustomerId(customerId)) {
+            return new VersionConflictException("Customer with customerId: " + customerId
+                    + " was changed since version " + version);
+        }
+        return new NotFoundException("Could not find customer with customerId: " + customerId);
+    }
+
+    //a new entity each time, a failed transaction leaves its entities with an id and version
+    private Customer toCustomer(CustomerVO customerVO) {
+        return Customer.builder()
+                .customerId(customerVO.getCustomerId())
+                .firstName(customerVO.getFirstName())
+                .lastName(customerVO.getLastName())
+                .build();
+    }
+
+    //a customer of a bulk request and its position in the request
+    private record BulkRecord(int index, CustomerVO customerVO) {
+    }
+
+    //opaque to clients, the position of the last customer of a page
+    private record Cursor(LocalDateTime insertedAt, String id) {
+
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((insertedAt + "," + id).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = value.indexOf(',');
+                return new Cursor(LocalDateTime.parse(value.substring(0, separator)), value.substring(separator + 1));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+                throw new InvalidRequestException("Invalid cursor: " + cursor);
+            }
+        }
     }
 }
@@ -10,8 +10,11 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.spec.KeySpec;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
@@ -23,19 +26,25 @@ public class EncryptionService {
     public static final int ITERATION_COUNT = 65536;
     public static final int KEY_LENGTH = 256;
 
+    private static final IvParameterSpec IV = new IvParameterSpec(new byte[16]);
+
+    //deriving a key takes tens of milliseconds by design, secret and salt come from config so derive each key once
+    private final Map<KeyId, SecretKeySpec> secretKeys = new ConcurrentHashMap<>();
+
+    //ciphers are not thread safe but can be re-initialized for every call
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CIPHER);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     public String encrypt(String strToEncrypt, String secret, String salt) {
         try
         {
-            byte[] iv = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-            IvParameterSpec ivspec = new IvParameterSpec(iv);
-
-            SecretKeyFactory factory = SecretKeyFactory.getInstance(HASH_ALGORITHM);
-            KeySpec spec = new PBEKeySpec(secret.toCharArray(), salt.getBytes(), ITERATION_COUNT, KEY_LENGTH);
-            SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKey = new SecretKeySpec(tmp.getEncoded(), KEY_ALGORITHM);
-
-            Cipher cipher = Cipher.getInstance(CIPHER);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivspec);
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(secret, salt), IV);
             return Base64.getEncoder().encodeToString(cipher.doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
         } catch (Exception e) {
             log.error("Error while encrypting: ", e);
@@ -46,16 +55,8 @@ public class EncryptionService {
     public String decrypt(String strToDecrypt, String secret, String salt) {
         try
         {
-            byte[] iv = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-            IvParameterSpec ivspec = new IvParameterSpec(iv);
-
-            SecretKeyFactory factory = SecretKeyFactory.getInstance(HASH_ALGORITHM);
-            KeySpec spec = new PBEKeySpec(secret.toCharArray(), salt.getBytes(), ITERATION_COUNT, KEY_LENGTH);
-            SecretKey tmp = factory.generateSecret(spec);
-            SecretKeySpec secretKey = new SecretKeySpec(tmp.getEncoded(), KEY_ALGORITHM);
-
-            Cipher cipher = Cipher.getInstance(CIPHER);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivspec);
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, getSecretKey(secret, salt), IV);
             return new String(cipher.doFinal(Base64.getDecoder().decode(strToDecrypt)));
         } catch (Exception e) {
             log.error("Error while decrypting: ", e);
@@ -63,4 +64,21 @@ public class EncryptionService {
         }
     }
 
+    private SecretKeySpec getSecretKey(String secret, String salt) {
+        return secretKeys.computeIfAbsent(new KeyId(secret, salt), EncryptionService::deriveSecretKey);
+    }
+
+    private static SecretKeySpec deriveSecretKey(KeyId keyId) {
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(HASH_ALGORITHM);
+            KeySpec spec = new PBEKeySpec(keyId.secret().toCharArray(), keyId.salt().getBytes(), ITERATION_COUNT, KEY_LENGTH);
+            SecretKey tmp = factory.generateSecret(spec);
+            return new SecretKeySpec(tmp.getEncoded(), KEY_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record KeyId(String secret, String salt) {
+    }
 }